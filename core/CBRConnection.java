@@ -4,6 +4,9 @@
  */
 package core;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import routing.MessageRouter;
 
 /**
@@ -12,6 +15,20 @@ import routing.MessageRouter;
 public class CBRConnection extends Connection {
 	private int speed;
 	private double transferDoneTime;
+	/** recycled connections that can be reused */
+	private static List<CBRConnection> pool;
+
+	static {
+		DTNSim.registerForReset(CBRConnection.class.getCanonicalName());
+		reset();
+	}
+
+	/**
+	 * Resets the static fields of the class
+	 */
+	public static void reset() {
+		pool = new ArrayList<CBRConnection>();
+	}
 
 	/**
 	 * Creates a new connection between nodes and sets the connection
@@ -31,6 +48,40 @@ public class CBRConnection extends Connection {
 
 	}
 
+	/**
+	 * Returns a new connection between nodes with the connection state 
+	 * "up". If connection pooling is enabled and there are recycled 
+	 * connections available, one of those is reinitialized and returned.
+	 * @param fromNode The node that initiated the connection
+	 * @param fromInterface The interface that initiated the connection
+	 * @param toNode The node in the other side of the connection
+	 * @param toInterface The interface in the other side of the connection
+	 * @param connectionSpeed Transfer speed of the connection (Bps) when 
+	 *  the connection is initiated
+	 * @return The connection
+	 * @see World#CONNECTION_POOL_S
+	 */
+	public static CBRConnection obtain(DTNHost fromNode, 
+			NetworkInterface fromInterface, DTNHost toNode,
+			NetworkInterface toInterface, int connectionSpeed) {
+		if (pool.isEmpty()) {
+			return new CBRConnection(fromNode, fromInterface, toNode, 
+					toInterface, connectionSpeed);
+		}
+		CBRConnection con = pool.remove(pool.size() - 1);
+		con.init(fromNode, fromInterface, toNode, toInterface);
+		con.speed = connectionSpeed;
+		con.transferDoneTime = 0;
+		return con;
+	}
+
+	@Override
+	protected void recycle() {
+		if (isPoolUsed()) {
+			pool.add(this);
+		}
+	}
+
 	/**
 	 * Sets a message that this connection is currently transferring. If message
 	 * passing is controlled by external events, this method is not needed
@@ -20,6 +20,25 @@ public abstract class Connection {
 	protected Message msgOnFly;
 	/** how many bytes this connection has transferred */
 	protected int bytesTransferred;
+	/** how many holders the connection has (the interfaces while the 
+	 * connection is up and the routers that are sending over it) */
+	private int references;
+
+	/** should the connections be pooled (null if the setting is not read
+	 * yet) */
+	private static Boolean usePool;
+
+	static {
+		DTNSim.registerForReset(Connection.class.getCanonicalName());
+		reset();
+	}
+
+	/**
+	 * Resets the static fields of the class
+	 */
+	public static void reset() {
+		usePool = null;
+	}
 
 	/**
 	 * Creates a new connection between nodes and sets the connection
@@ -31,14 +50,79 @@ public abstract class Connection {
 	 */
 	public Connection(DTNHost fromNode, NetworkInterface fromInterface, 
 			DTNHost toNode, NetworkInterface toInterface) {
+		init(fromNode, fromInterface, toNode, toInterface);
+	}
+
+	/**
+	 * (Re)initializes the connection between nodes and sets the connection
+	 * state to "up". The interfaces hold the new connection until it is 
+	 * released after it has gone down.
+	 * @param fromNode The node that initiated the connection
+	 * @param fromInterface The interface that initiated the connection
+	 * @param toNode The node in the other side of the connection
+	 * @param toInterface The interface in the other side of the connection
+	 */
+	protected void init(DTNHost fromNode, NetworkInterface fromInterface, 
+			DTNHost toNode, NetworkInterface toInterface) {
 		this.fromNode = fromNode;
 		this.fromInterface = fromInterface;
 		this.toNode = toNode;
 		this.toInterface = toInterface;
+		this.msgFromNode = null;
+		this.msgOnFly = null;
 		this.isUp = true;
 		this.bytesTransferred = 0;
+		this.references = 1;
 	}
 
+	/**
+	 * Returns true if the connections that are not used anymore should be
+	 * pooled and reused
+	 * @return true if the connections should be pooled
+	 * @see World#CONNECTION_POOL_S
+	 */
+	protected static boolean isPoolUsed() {
+		if (usePool == null) {
+			Settings s = new Settings(World.SETTINGS_NS);
+			usePool = World.DEF_CONNECTION_POOL;
+			if (s.contains(World.CONNECTION_POOL_S)) {
+				usePool = s.getBoolean(World.CONNECTION_POOL_S);
+			}
+		}
+		return usePool;
+	}
+
+	/**
+	 * Marks that one more holder keeps a reference to this connection and 
+	 * it must not be reused before the holder releases it.
+	 * @see #release()
+	 */
+	public void retain() {
+		this.references++;
+	}
+
+	/**
+	 * Releases a reference to this connection. When the connection is down
+	 * and all the holders have released it, it is recycled (see 
+	 * {@link #recycle()}) and must not be used anymore.
+	 * @see #retain()
+	 */
+	public void release() {
+		assert this.references > 0 : "Connection " + this + 
+			" released too many times";
+		this.references--;
+		if (this.references == 0 && !this.isUp) {
+			recycle();
+		}
+	}
+
+	/**
+	 * Called when the connection is down and nobody holds it anymore. 
+	 * Subclasses that reuse their objects can put the connection to a pool
+	 * here. This implementation does nothing.
+	 */
+	protected void recycle() {}
+
 
 	/**
 	 * Returns true if the connection is up
@@ -0,0 +1,138 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package core;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Stress benchmark for the connection setup and teardown with flapping 
+ * contacts. Many fast moving hosts with short radio ranges form and break
+ * contacts all the time while the routers try to transfer messages over
+ * them, and the time and the memory allocated per update are measured with
+ * and without the connection pool (see {@link World#CONNECTION_POOL_S}).
+ * The number of contacts is printed as a checksum that must be the same 
+ * with and without the pool. The allocated memory is reported only if the 
+ * JVM supports measuring it (otherwise -1 is printed). Usage:
+ * <PRE>java core.ConnectionPoolBenchmark [connectionPool (true) 
+ * [nrofHosts (1000) [updates (2000)]]]</PRE>
+ */
+public class ConnectionPoolBenchmark {
+	/** default number of hosts */
+	private static final int DEF_NROF_HOSTS = 1000;
+	/** default number of measured updates */
+	private static final int DEF_UPDATES = 2000;
+	/** number of warm up updates before measuring */
+	private static final int WARMUP_UPDATES = 200;
+
+	/** number of contacts that have come up */
+	private static long nrofContacts = 0;
+
+	/**
+	 * Runs the benchmark
+	 * @param args Is the pool used, number of hosts and number of updates
+	 */
+	public static void main(String[] args) throws IOException {
+		boolean usePool = args.length > 0 ? Boolean.parseBoolean(args[0]) :
+			true;
+		int nrofHosts = args.length > 1 ? Integer.parseInt(args[1]) : 
+			DEF_NROF_HOSTS;
+		int updates = args.length > 2 ? Integer.parseInt(args[2]) : 
+			DEF_UPDATES;
+
+		initSettings(usePool, nrofHosts, WARMUP_UPDATES + updates);
+		SimScenario scen = SimScenario.getInstance();
+		World world = scen.getWorld();
+		scen.addConnectionListener(new ConnectionListener() {
+			public void hostsConnected(DTNHost host1, DTNHost host2) {
+				nrofContacts++;
+			}
+			public void hostsDisconnected(DTNHost host1, DTNHost host2) {}
+		});
+
+		for (int i = 0; i < WARMUP_UPDATES; i++) {
+			world.update();
+		}
+		nrofContacts = 0;
+		long startBytes = getAllocatedBytes();
+		long start = System.nanoTime();
+		for (int i = 0; i < updates; i++) {
+			world.update();
+		}
+		long time = System.nanoTime() - start;
+		long bytes = getAllocatedBytes();
+		if (bytes >= 0) {
+			bytes -= startBytes;
+		}
+
+		System.out.println("# pool nodes us_per_update contacts_per_s " + 
+				"bytes_per_update contacts");
+		System.out.printf("%b %d %.1f %.0f %d %d%n", usePool, nrofHosts, 
+				time / 1000.0 / updates, nrofContacts / (time / 1e9), 
+				bytes < 0 ? -1 : bytes / updates, nrofContacts);
+	}
+
+	/**
+	 * Returns the number of bytes allocated by the current thread or -1 if
+	 * the JVM doesn't support measuring it
+	 * @return The number of bytes allocated by the current thread
+	 */
+	private static long getAllocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean)bean).
+				getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	/**
+	 * Writes the settings of the scenario to a temporary file and 
+	 * initializes the settings from it
+	 */
+	private static void initSettings(boolean usePool, int nrofHosts,
+			int endTime) throws IOException {
+		String[] settings = {
+			"Scenario.name = ConnectionPoolBenchmark",
+			"Scenario.simulateConnections = true",
+			"Scenario.updateInterval = 0.5",
+			"Scenario.endTime = " + endTime,
+			"Scenario.nrofHostGroups = 1",
+			World.SETTINGS_NS + "." + World.CONNECTION_POOL_S + " = " + usePool,
+			"radio.type = SimpleBroadcastInterface",
+			"radio.transmitSpeed = 250k",
+			"radio.transmitRange = 8",
+			"Group.groupID = n",
+			"Group.nrofHosts = " + nrofHosts,
+			"Group.movementModel = RandomWaypoint",
+			"Group.router = EpidemicRouter",
+			"Group.bufferSize = 5M",
+			"Group.waitTime = 0, 0",
+			"Group.speed = 10, 20",
+			"Group.nrofInterfaces = 1",
+			"Group.interface1 = radio",
+			"Events.nrof = 1",
+			"Events1.class = MessageEventGenerator",
+			"Events1.interval = 1, 2",
+			"Events1.size = 50k, 100k",
+			"Events1.hosts = 0, " + (nrofHosts - 1),
+			"Events1.prefix = M",
+			"MovementModel.rngSeed = 1",
+			"MovementModel.worldSize = 400, 400",
+		};
+
+		File f = File.createTempFile("poolbench", ".txt");
+		f.deleteOnExit();
+		FileWriter w = new FileWriter(f);
+		for (String s : settings) {
+			w.write(s + "\n");
+		}
+		w.close();
+		Settings.init(f.getPath());
+	}
+}
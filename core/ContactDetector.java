@@ -0,0 +1,522 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package core;
+
+import input.EventQueue;
+import input.ExternalEvent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * <P>
+ * Finds the exact times when the interfaces of the hosts get within or out
+ * of range of each other during an update interval. The hosts are assumed
+ * to move linearly between the locations where they were at the start of
+ * the interval, the waypoints they passed during the interval, and the 
+ * locations at the end of the interval (see 
+ * {@link DTNHost#getNrofPassedWaypoints()}). For every pair of interfaces
+ * of the same type, the times when their distance crosses the (smaller)
+ * transmit range are solved from the quadratic distance equation of each
+ * piece of the movement, and a connection up or down event is created for
+ * every crossing. This way also contacts that are shorter than the update
+ * interval are found.</P>
+ * <P>
+ * The events are given out as an {@link EventQueue}, so they are processed
+ * in time order together with the other external events. Candidate pairs
+ * are found by putting every interface to the cells (of the size of the
+ * largest transmit range) covered by the bounding box of its movement
+ * during the interval.</P>
+ * @see World#CONTINUOUS_CONTACTS_S
+ */
+public class ContactDetector implements EventQueue {
+	/** smallest accepted cell size for the candidate search */
+	private static final double MIN_CELL_SIZE = 1.0;
+
+	/** the hosts (indexed by their address) */
+	private List<DTNHost> hosts;
+	/** interfaces grouped by their type */
+	private List<ArrayList<NetworkInterface>> groups;
+	/** index of each interface in its group (indexed by interface address) */
+	private int[] groupIndex;
+	/** x coordinates of the hosts at the start of the interval */
+	private double[] startX;
+	/** y coordinates of the hosts at the start of the interval */
+	private double[] startY;
+
+	/** bounding boxes of the interfaces' movement during the interval */
+	private double[] minX;
+	private double[] maxX;
+	private double[] minY;
+	private double[] maxY;
+	/** (cell key, group index) entries of the candidate search */
+	private long[] entries;
+	private int nrofEntries;
+	/** last search mark of every interface of a group */
+	private int[] seen;
+	private int searchMark;
+
+	/** events of the current interval, sorted by time */
+	private ArrayList<ContactEvent> events;
+	private int nextEvent;
+	private double intervalStart;
+	private double intervalLength;
+	/** are the hosts recording the waypoints they pass */
+	private boolean recordingWaypoints;
+
+	/**
+	 * Constructor. The hosts start recording the waypoints they pass in the
+	 * first {@link #startInterval()} (i.e., not during the movement model
+	 * warmup).
+	 * @param hosts The hosts (indexed by their address)
+	 * @throws SettingsError if some interface has a scan interval
+	 */
+	public ContactDetector(List<DTNHost> hosts) {
+		this.hosts = hosts;
+		this.groups = new ArrayList<ArrayList<NetworkInterface>>();
+		List<String> types = new ArrayList<String>();
+		int maxAddress = 0;
+		int maxGroupSize = 0;
+
+		for (DTNHost host : hosts) {
+			for (NetworkInterface ni : host.getInterfaces()) {
+				if (ni.getScanInterval() > 0) {
+					throw new SettingsError("Interface type " + 
+							ni.getInterfaceType() + " has a scan interval (" +
+							NetworkInterface.SCAN_INTERVAL_S + ") that can't " +
+							"be used with " + World.SETTINGS_NS + "." + 
+							World.CONTINUOUS_CONTACTS_S);
+				}
+				int index = types.indexOf(ni.getInterfaceType());
+				if (index < 0) {
+					index = types.size();
+					types.add(ni.getInterfaceType());
+					groups.add(new ArrayList<NetworkInterface>());
+				}
+				groups.get(index).add(ni);
+				maxGroupSize = Math.max(maxGroupSize, groups.get(index).size());
+				maxAddress = Math.max(maxAddress, ni.getAddress());
+			}
+		}
+
+		this.groupIndex = new int[maxAddress + 1];
+		for (ArrayList<NetworkInterface> group : groups) {
+			for (int i = 0, n = group.size(); i < n; i++) {
+				groupIndex[group.get(i).getAddress()] = i;
+			}
+		}
+
+		this.startX = new double[hosts.size()];
+		this.startY = new double[hosts.size()];
+		this.minX = new double[maxGroupSize];
+		this.maxX = new double[maxGroupSize];
+		this.minY = new double[maxGroupSize];
+		this.maxY = new double[maxGroupSize];
+		this.seen = new int[maxGroupSize];
+		this.entries = new long[4 * maxGroupSize + 1];
+		this.events = new ArrayList<ContactEvent>();
+		this.nextEvent = 0;
+		this.recordingWaypoints = false;
+	}
+
+	/**
+	 * Records the locations of the hosts at the start of an update interval.
+	 * Must be called before the hosts are moved.
+	 */
+	public void startInterval() {
+		for (int i = 0, n = hosts.size(); i < n; i++) {
+			DTNHost host = hosts.get(i);
+			startX[i] = host.getLocation().getX();
+			startY[i] = host.getLocation().getY();
+			if (this.recordingWaypoints) {
+				host.clearPassedWaypoints();
+			}
+			else {
+				host.setRecordWaypoints(true);
+			}
+		}
+		this.recordingWaypoints = true;
+	}
+
+	/**
+	 * Finds the connection up and down events of an update interval. Must 
+	 * be called after the hosts have been moved for the interval.
+	 * @param start Time when the interval started
+	 * @param length Length of the interval
+	 */
+	public void findContacts(double start, double length) {
+		this.intervalStart = start;
+		this.intervalLength = length;
+		this.events.clear();
+		this.nextEvent = 0;
+
+		for (ArrayList<NetworkInterface> group : groups) {
+			findContacts(group);
+		}
+
+		Collections.sort(this.events, new EventComparator());
+	}
+
+	/**
+	 * Finds the contact events of one group of interfaces
+	 * @param group The interfaces
+	 */
+	private void findContacts(ArrayList<NetworkInterface> group) {
+		int n = group.size();
+		double cellSize = MIN_CELL_SIZE;
+		for (int i = 0; i < n; i++) {
+			cellSize = Math.max(cellSize, group.get(i).getTransmitRange());
+		}
+
+		/* put the interfaces to the cells their movement covers */
+		this.nrofEntries = 0;
+		for (int i = 0; i < n; i++) {
+			DTNHost host = group.get(i).getHost();
+			int address = host.getAddress();
+			minX[i] = maxX[i] = startX[address];
+			minY[i] = maxY[i] = startY[address];
+			for (int j = 1, k = nrofKnots(host); j < k; j++) {
+				double x = knotX(host, j);
+				double y = knotY(host, j);
+				minX[i] = Math.min(minX[i], x);
+				maxX[i] = Math.max(maxX[i], x);
+				minY[i] = Math.min(minY[i], y);
+				maxY[i] = Math.max(maxY[i], y);
+			}
+
+			for (int cx = cell(minX[i], cellSize), 
+					cx1 = cell(maxX[i], cellSize); cx <= cx1; cx++) {
+				for (int cy = cell(minY[i], cellSize), 
+						cy1 = cell(maxY[i], cellSize); cy <= cy1; cy++) {
+					addEntry(cellKey(cx, cy), i);
+				}
+			}
+		}
+		Arrays.sort(entries, 0, nrofEntries);
+
+		/* check every interface against the ones in the cells within range
+		 * of its movement */
+		for (int i = 0; i < n; i++) {
+			NetworkInterface ni = group.get(i);
+			int mark = ++searchMark;
+			for (int cx = cell(minX[i] - cellSize, cellSize), 
+					cx1 = cell(maxX[i] + cellSize, cellSize); cx <= cx1; cx++) {
+				for (int cy = cell(minY[i] - cellSize, cellSize),
+						cy1 = cell(maxY[i] + cellSize, cellSize); cy <= cy1; 
+						cy++) {
+					int key = cellKey(cx, cy);
+					for (int e = firstEntry(key); e < nrofEntries && 
+							(int)(entries[e] >> 32) == key; e++) {
+						int j = (int)entries[e];
+						if (j <= i || seen[j] == mark) {
+							continue;
+						}
+						seen[j] = mark;
+						NetworkInterface other = group.get(j);
+						if (other.getHost() != ni.getHost()) {
+							checkPair(ni, other);
+						}
+					}
+				}
+			}
+
+			/* connections to interfaces that were never close enough */
+			for (Connection con : ni.getConnections()) {
+				NetworkInterface other = con.getOtherInterface(ni);
+				int j = groupIndex[other.getAddress()];
+				if (j > i && group.get(j) == other && seen[j] != mark) {
+					addEvent(0, ni, other, false);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the times when two interfaces get within or out of range of 
+	 * each other during the interval
+	 */
+	private void checkPair(NetworkInterface a, NetworkInterface b) {
+		DTNHost ha = a.getHost();
+		DTNHost hb = b.getHost();
+		int lastA = nrofKnots(ha) - 2; // index of the last piece
+		int lastB = nrofKnots(hb) - 2;
+		double range = Math.min(a.getTransmitRange(), b.getTransmitRange());
+		double rangeSq = range * range;
+		boolean up = a.isConnected(b);
+
+		int ia = 0;
+		int ib = 0;
+		double t = 0;
+		while (true) {
+			double endA = knotTime(ha, ia + 1);
+			double endB = knotTime(hb, ib + 1);
+			double tNext = Math.min(endA, endB);
+
+			double dx = posX(ha, ia, t) - posX(hb, ib, t);
+			double dy = posY(ha, ia, t) - posY(hb, ib, t);
+			boolean inRange = dx*dx + dy*dy <= rangeSq;
+			if (inRange != up) {
+				addEvent(t, a, b, inRange);
+				up = inRange;
+			}
+
+			if (tNext > t) {
+				/* solve |d + e*s| = range for s in (0,1) */
+				double ex = posX(ha, ia, tNext) - posX(hb, ib, tNext) - dx;
+				double ey = posY(ha, ia, tNext) - posY(hb, ib, tNext) - dy;
+				double qa = ex*ex + ey*ey;
+				double qb = 2 * (dx*ex + dy*ey);
+				double qc = dx*dx + dy*dy - rangeSq;
+				double disc = qb*qb - 4*qa*qc;
+				if (qa > 0 && disc > 0) {
+					double root = Math.sqrt(disc);
+					double s1 = (-qb - root) / (2 * qa);
+					double s2 = (-qb + root) / (2 * qa);
+					if (s1 > 0 && s1 < 1 && !up) {
+						addEvent(t + s1 * (tNext - t), a, b, true);
+						up = true;
+					}
+					if (s2 > 0 && s2 < 1 && up) {
+						addEvent(t + s2 * (tNext - t), a, b, false);
+						up = false;
+					}
+				}
+			}
+
+			t = tNext;
+			if (t >= 1) {
+				break;
+			}
+			if (endA <= t && ia < lastA) {
+				ia++;
+			}
+			if (endB <= t && ib < lastB) {
+				ib++;
+			}
+		}
+
+		double dx = knotX(ha, lastA + 1) - knotX(hb, lastB + 1);
+		double dy = knotY(ha, lastA + 1) - knotY(hb, lastB + 1);
+		boolean inRange = dx*dx + dy*dy <= rangeSq;
+		if (inRange != up) {
+			addEvent(1, a, b, inRange);
+		}
+	}
+
+	/**
+	 * Returns the number of known locations of a host during the interval
+	 * (start, passed waypoints, and end)
+	 */
+	private int nrofKnots(DTNHost host) {
+		return host.getNrofPassedWaypoints() + 2;
+	}
+
+	/**
+	 * Returns the time (fraction of the interval) of a known location
+	 */
+	private double knotTime(DTNHost host, int index) {
+		if (index == 0) {
+			return 0;
+		}
+		else if (index > host.getNrofPassedWaypoints()) {
+			return 1;
+		}
+		return host.getPassedWaypointTime(index - 1);
+	}
+
+	/**
+	 * Returns the x coordinate of a known location
+	 */
+	private double knotX(DTNHost host, int index) {
+		if (index == 0) {
+			return startX[host.getAddress()];
+		}
+		else if (index > host.getNrofPassedWaypoints()) {
+			return host.getLocation().getX();
+		}
+		return host.getPassedWaypointX(index - 1);
+	}
+
+	/**
+	 * Returns the y coordinate of a known location
+	 */
+	private double knotY(DTNHost host, int index) {
+		if (index == 0) {
+			return startY[host.getAddress()];
+		}
+		else if (index > host.getNrofPassedWaypoints()) {
+			return host.getLocation().getY();
+		}
+		return host.getPassedWaypointY(index - 1);
+	}
+
+	/**
+	 * Returns the fraction of a piece of movement that has passed at time t
+	 */
+	private double pieceFraction(DTNHost host, int piece, double t) {
+		double start = knotTime(host, piece);
+		double end = knotTime(host, piece + 1);
+		if (end <= start) {
+			return 1;
+		}
+		return Math.min(1, Math.max(0, (t - start) / (end - start)));
+	}
+
+	/**
+	 * Returns the x coordinate of a host at time t on a piece of movement
+	 */
+	private double posX(DTNHost host, int piece, double t) {
+		double x0 = knotX(host, piece);
+		return x0 + (knotX(host, piece + 1) - x0) * 
+			pieceFraction(host, piece, t);
+	}
+
+	/**
+	 * Returns the y coordinate of a host at time t on a piece of movement
+	 */
+	private double posY(DTNHost host, int piece, double t) {
+		double y0 = knotY(host, piece);
+		return y0 + (knotY(host, piece + 1) - y0) * 
+			pieceFraction(host, piece, t);
+	}
+
+	/**
+	 * Returns the cell of a coordinate
+	 */
+	private static int cell(double coordinate, double cellSize) {
+		return (int)Math.floor(coordinate / cellSize);
+	}
+
+	/**
+	 * Returns the key of a cell. Far away cells may share a key, which only
+	 * adds candidates that are rejected by the exact check.
+	 */
+	private static int cellKey(int cx, int cy) {
+		return (cx << 16) | (cy & 0xffff);
+	}
+
+	/**
+	 * Adds a (cell key, group index) entry for the candidate search
+	 */
+	private void addEntry(int key, int index) {
+		if (nrofEntries == entries.length) {
+			entries = Arrays.copyOf(entries, 2 * entries.length);
+		}
+		entries[nrofEntries++] = ((long)key << 32) | index;
+	}
+
+	/**
+	 * Returns the index of the first entry of a cell (or the index where it
+	 * would be)
+	 */
+	private int firstEntry(int key) {
+		long target = (long)key << 32;
+		int low = 0;
+		int high = nrofEntries;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (entries[mid] < target) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Adds a connection event
+	 * @param t Time of the event (fraction of the interval)
+	 * @param a The first interface
+	 * @param b The second interface
+	 * @param up Is this a connection up event
+	 */
+	private void addEvent(double t, NetworkInterface a, NetworkInterface b,
+			boolean up) {
+		events.add(new ContactEvent(intervalStart + t * intervalLength, 
+				a, b, up));
+	}
+
+	/**
+	 * Returns the next contact event of the interval or an event with time
+	 * Double.MAX_VALUE if there aren't any left
+	 */
+	public ExternalEvent nextEvent() {
+		if (nextEvent < events.size()) {
+			return events.get(nextEvent++);
+		}
+		return new ExternalEvent(Double.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the time of the next contact event or Double.MAX_VALUE if 
+	 * there aren't any left
+	 */
+	public double nextEventsTime() {
+		if (nextEvent < events.size()) {
+			return events.get(nextEvent).getTime();
+		}
+		return Double.MAX_VALUE;
+	}
+
+	/**
+	 * Connection up or down event between two interfaces. Connections are 
+	 * created only between active hosts.
+	 */
+	private static class ContactEvent extends ExternalEvent {
+		private static final long serialVersionUID = 1L;
+		private NetworkInterface a;
+		private NetworkInterface b;
+		private boolean up;
+
+		public ContactEvent(double time, NetworkInterface a, 
+				NetworkInterface b, boolean up) {
+			super(time);
+			this.a = a;
+			this.b = b;
+			this.up = up;
+		}
+
+		@Override
+		public void processEvent(World world) {
+			if (!up) {
+				if (a.isConnected(b)) {
+					a.destroyConnection(b);
+				}
+			}
+			else if (!a.isConnected(b) && a.getHost().isActive() && 
+					b.getHost().isActive()) {
+				a.createConnection(b);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "CONTACT " + (up ? "up" : "down") + " @" + this.time + 
+				" " + a + "<->" + b;
+		}
+	}
+
+	/**
+	 * Orders the events by time and the events of the same time by the
+	 * interface addresses. The sort is stable so the events of a pair stay
+	 * in the order they were found.
+	 */
+	private static class EventComparator implements Comparator<ContactEvent> {
+		public int compare(ContactEvent e1, ContactEvent e2) {
+			if (e1.getTime() != e2.getTime()) {
+				return e1.getTime() < e2.getTime() ? -1 : 1;
+			}
+			if (e1.a.getAddress() != e2.a.getAddress()) {
+				return e1.a.getAddress() - e2.a.getAddress();
+			}
+			return e1.b.getAddress() - e2.b.getAddress();
+		}
+	}
+}
@@ -5,6 +5,7 @@
 package core;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
@@ -33,6 +34,11 @@ public class DTNHost implements Comparable<DTNHost> {
 	private List<MovementListener> movListeners;
 	private List<NetworkInterface> net;
 	private ModuleCommunicationBus comBus;
+	/** waypoints passed during the latest move as (fraction of the move's
+	 * time increment, x, y) triples, or null if they are not recorded */
+	private double[] passedWaypoints;
+	/** number of waypoints in {@link #passedWaypoints} */
+	private int nrofPassedWaypoints;
 
 	static {
 		DTNSim.registerForReset(DTNHost.class.getCanonicalName());
@@ -79,6 +85,7 @@ public class DTNHost implements Comparable<DTNHost> {
 		setRouter(mRouterProto.replicate());
 
 		this.location = movement.getInitialLocation();
+		locationChanged();
 
 		this.nextTimeToMove = movement.nextPathAvailable();
 		this.path = null;
@@ -152,6 +159,7 @@ public class DTNHost implements Comparable<DTNHost> {
 	 * @param con  The connection object whose state changed
 	 */
 	public void connectionUp(Connection con) {
+		this.router.connectionUp(con);
 		this.router.changedConnection(con);
 	}
 
@@ -197,6 +205,18 @@ public class DTNHost implements Comparable<DTNHost> {
 	 */
 	public void setLocation(Coord location) {
 		this.location = location.clone();
+		locationChanged();
+	}
+
+	/**
+	 * Informs the network interfaces that the location of this host has
+	 * changed
+	 * @see NetworkInterface#locationChanged()
+	 */
+	private void locationChanged() {
+		for (int i = 0, n = net.size(); i < n; i++) {
+			net.get(i).locationChanged();
+		}
 	}
 
 	/**
@@ -320,18 +340,80 @@ public class DTNHost implements Comparable<DTNHost> {
 	 * @param simulateConnections Should network layer be updated too
 	 */
 	public void update(boolean simulateConnections) {
+		update(simulateConnections, true);
+	}
+
+	/**
+	 * Updates node's network layer and router.
+	 * @param simulateConnections Should network layer be updated too
+	 * @param checkRanges Should the network interfaces check which 
+	 * interfaces are in their range. If false, only the state of the current
+	 * connections is updated (see 
+	 * {@link NetworkInterface#updateConnections()}); the connections are
+	 * then set up and torn down by someone else.
+	 */
+	public void update(boolean simulateConnections, boolean checkRanges) {
 		if (!isActive()) {
 			return;
 		}
 		
 		if (simulateConnections) {
 			for (NetworkInterface i : net) {
-				i.update();
+				if (checkRanges) {
+					i.update();
+				}
+				else {
+					i.updateConnections();
+				}
 			}
 		}
 		this.router.update();
 	}
 
+	/**
+	 * Updates the locations of this host's network interfaces in their
+	 * connectivity optimizers.
+	 * @see #findNearInterfaces()
+	 */
+	public void updateInterfaceLocations() {
+		for (NetworkInterface i : net) {
+			i.updateLocation();
+		}
+	}
+
+	/**
+	 * Makes all the network interfaces of this host look up the interfaces
+	 * within their range for the next {@link #update(boolean)}. Can be called
+	 * for different hosts concurrently as long as no locations are changed.
+	 * @see NetworkInterface#findNearInterfaces()
+	 */
+	public void findNearInterfaces() {
+		for (NetworkInterface i : net) {
+			i.findNearInterfaces();
+		}
+	}
+
+	/**
+	 * Returns true if this host can be moved concurrently with other hosts,
+	 * i.e., its movement model allows it and there are no movement listeners
+	 * that would be informed about the new destinations.
+	 * @return true if this host can be moved concurrently with other hosts
+	 * @see MovementModel#isConcurrentlyMovable()
+	 */
+	public boolean canMoveConcurrently() {
+		return (this.movListeners == null || this.movListeners.isEmpty()) &&
+			this.movement.isConcurrentlyMovable();
+	}
+
+	/**
+	 * Makes the movement model of this host use a random number stream of
+	 * its own (identified by the address of this host).
+	 * @see MovementModel#useOwnRng(int)
+	 */
+	public void useOwnMovementRng() {
+		this.movement.useOwnRng(this.address);
+	}
+
 	/**
 	 * Moves the node towards the next waypoint or waits if it is
 	 * not time to move yet
@@ -352,13 +434,19 @@ public class DTNHost implements Comparable<DTNHost> {
 		}
 
 		possibleMovement = timeIncrement * speed;
+		double totalMovement = possibleMovement;
 		distance = this.location.distance(this.destination);
 
 		while (possibleMovement >= distance) {
 			// node can move past its next destination
 			this.location.setLocation(this.destination); // snap to destination
 			possibleMovement -= distance;
+			if (this.passedWaypoints != null) {
+				addPassedWaypoint(totalMovement > 0 ? 
+						(totalMovement - possibleMovement) / totalMovement : 0);
+			}
 			if (!setNextWaypoint()) { // get a new waypoint
+				locationChanged();
 				return; // no more waypoints left
 			}
 			distance = this.location.distance(this.destination);
@@ -370,8 +458,85 @@ public class DTNHost implements Comparable<DTNHost> {
 		dy = (possibleMovement/distance) * (this.destination.getY() -
 				this.location.getY());
 		this.location.translate(dx, dy);
+		locationChanged();
 	}	
 
+	/**
+	 * Sets whether the waypoints passed during a move are recorded
+	 * @param record If true, the waypoints are recorded
+	 * @see #getNrofPassedWaypoints()
+	 */
+	public void setRecordWaypoints(boolean record) {
+		if (record && this.passedWaypoints == null) {
+			this.passedWaypoints = new double[3 * 4];
+		}
+		else if (!record) {
+			this.passedWaypoints = null;
+		}
+		this.nrofPassedWaypoints = 0;
+	}
+
+	/**
+	 * Forgets the recorded waypoints. Should be called before every move
+	 * whose waypoints are needed.
+	 */
+	public void clearPassedWaypoints() {
+		this.nrofPassedWaypoints = 0;
+	}
+
+	/**
+	 * Returns the number of waypoints passed after the latest call of 
+	 * {@link #clearPassedWaypoints()} (if waypoints are recorded)
+	 * @return the number of passed waypoints
+	 */
+	public int getNrofPassedWaypoints() {
+		return this.nrofPassedWaypoints;
+	}
+
+	/**
+	 * Returns when a recorded waypoint was passed
+	 * @param index Index of the waypoint
+	 * @return The fraction of the move's time increment that had passed when
+	 * the waypoint was reached
+	 */
+	public double getPassedWaypointTime(int index) {
+		return this.passedWaypoints[3 * index];
+	}
+
+	/**
+	 * Returns the x coordinate of a recorded waypoint
+	 * @param index Index of the waypoint
+	 * @return the x coordinate of the waypoint
+	 */
+	public double getPassedWaypointX(int index) {
+		return this.passedWaypoints[3 * index + 1];
+	}
+
+	/**
+	 * Returns the y coordinate of a recorded waypoint
+	 * @param index Index of the waypoint
+	 * @return the y coordinate of the waypoint
+	 */
+	public double getPassedWaypointY(int index) {
+		return this.passedWaypoints[3 * index + 2];
+	}
+
+	/**
+	 * Records a passed waypoint (the current location)
+	 * @param time Fraction of the time increment when it was passed
+	 */
+	private void addPassedWaypoint(double time) {
+		int i = 3 * this.nrofPassedWaypoints;
+		if (i + 3 > this.passedWaypoints.length) {
+			this.passedWaypoints = Arrays.copyOf(this.passedWaypoints, 
+					2 * this.passedWaypoints.length);
+		}
+		this.passedWaypoints[i] = time;
+		this.passedWaypoints[i + 1] = this.location.getX();
+		this.passedWaypoints[i + 2] = this.location.getY();
+		this.nrofPassedWaypoints++;
+	}
+
 	/**
 	 * Sets the next destination and speed to correspond the next waypoint
 	 * on the path.
@@ -5,9 +5,18 @@
 package core;
 import gui.DTNSimGUI;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import ui.DTNSimTextUI;
 
@@ -24,8 +33,24 @@ public class DTNSim {
 	/** Name of the static method that all resettable classes must have
 	 * @see #registerForReset(String) */
 	public static final String RESET_METHOD_NAME = "reset";
+	/**
+	 * Number of batch runs that are run concurrently -setting id ({@value}).
+	 * Integer value. Read from the {@link World#SETTINGS_NS} namespace. 
+	 * Concurrent runs are run in separate class loaders so that each run has
+	 * its own copy of all the static state (sim clock, run index, message
+	 * IDs, router state etc.). Default is {@link #DEF_NROF_CONCURRENT_RUNS}.
+	 */
+	public static final String NROF_CONCURRENT_RUNS_S = "nrofConcurrentRuns";
+	/** default number of concurrent batch runs ({@value}) */
+	public static final int DEF_NROF_CONCURRENT_RUNS = 1;
+	/** Name of the method that starts an isolated batch run */
+	private static final String ISOLATED_RUN_METHOD_NAME = "runIsolated";
+
 	/** List of class names that should be reset between batch runs */
 	private static List<Class<?>> resetList = new ArrayList<Class<?>>();
+	/** How many batch runs are run concurrently (1 unless this class was 
+	 * loaded for an isolated batch run) */
+	private static int concurrentRuns = 1;
 	
 	/**
 	 * Starts the user interface with given arguments.
@@ -78,11 +103,18 @@ public class DTNSim {
 		
 		if (batchMode) {
 			long startTime = System.currentTimeMillis();
-			for (int i=nrofRuns[0]; i<nrofRuns[1]; i++) {
-				print("Run " + (i+1) + "/" + nrofRuns[1]);
-				Settings.setRunIndex(i);
-				resetForNextRun();
-				new DTNSimTextUI().start();
+			int nrofConcurrentRuns = getNrofConcurrentRuns();
+			if (nrofConcurrentRuns > 1 && nrofRuns[1] - nrofRuns[0] > 1) {
+				runConcurrently(confFiles, firstConfIndex, nrofRuns, 
+						nrofConcurrentRuns);
+			}
+			else {
+				for (int i=nrofRuns[0]; i<nrofRuns[1]; i++) {
+					print("Run " + (i+1) + "/" + nrofRuns[1]);
+					Settings.setRunIndex(i);
+					resetForNextRun();
+					new DTNSimTextUI().start();
+				}
 			}
 			double duration = (System.currentTimeMillis() - startTime)/1000.0;
 			print("---\nAll done in " + String.format("%.2f", duration) + "s");
@@ -129,6 +161,148 @@ public class DTNSim {
 		}
 	}
 	
+	/**
+	 * Returns the number of batch runs that should be run concurrently
+	 * @return the number of batch runs that should be run concurrently
+	 * @see #NROF_CONCURRENT_RUNS_S
+	 */
+	private static int getNrofConcurrentRuns() {
+		Settings s = new Settings(World.SETTINGS_NS);
+		int nrofConcurrentRuns = DEF_NROF_CONCURRENT_RUNS;
+		if (s.contains(NROF_CONCURRENT_RUNS_S)) {
+			nrofConcurrentRuns = s.getInt(NROF_CONCURRENT_RUNS_S);
+		}
+		if (nrofConcurrentRuns < 1) {
+			throw new SettingsError("Too small value (" + nrofConcurrentRuns +
+					") for " + World.SETTINGS_NS + "." + 
+					NROF_CONCURRENT_RUNS_S);
+		}
+		return nrofConcurrentRuns;
+	}
+
+	/**
+	 * Runs the batch runs in a thread pool. Every run is started in a class
+	 * loader of its own so the static state of the simulator classes isn't 
+	 * shared between the runs.
+	 * @param confFiles The command line arguments with the settings files
+	 * @param firstConfIndex Index of the first settings file name
+	 * @param nrofRuns The first and (last_run_index - 1) in an array
+	 * @param nrofThreads How many runs are run concurrently
+	 */
+	private static void runConcurrently(final String[] confFiles, 
+			final int firstConfIndex, final int[] nrofRuns, int nrofThreads) {
+		final URL[] classPath = getClassPath();
+		ExecutorService executor = Executors.newFixedThreadPool(nrofThreads);
+		final int concurrentRuns = Math.min(nrofThreads, 
+				nrofRuns[1] - nrofRuns[0]);
+
+		for (int i=nrofRuns[0]; i<nrofRuns[1]; i++) {
+			final int runIndex = i;
+			executor.execute(new Runnable() {
+				public void run() {
+					print("Run " + (runIndex+1) + "/" + nrofRuns[1]);
+					startIsolatedRun(classPath, confFiles, firstConfIndex, 
+							runIndex, concurrentRuns);
+				}
+			});
+		}
+
+		executor.shutdown();
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+				// wait until all runs are done
+			}
+		} catch (InterruptedException e) {
+			System.err.println("Interrupted while waiting for batch runs");
+			System.exit(-1);
+		}
+	}
+
+	/**
+	 * Returns the class path of the simulator as URLs
+	 * @return the class path of the simulator as URLs
+	 */
+	private static URL[] getClassPath() {
+		String[] paths = System.getProperty("java.class.path").split(
+				File.pathSeparator);
+		URL[] urls = new URL[paths.length];
+		try {
+			for (int i=0; i<paths.length; i++) {
+				urls[i] = new File(paths[i]).toURI().toURL();
+			}
+		} catch (MalformedURLException e) {
+			System.err.println("Invalid class path: " + e.getMessage());
+			System.exit(-1);
+		}
+		return urls;
+	}
+
+	/**
+	 * Loads the simulator classes again using a new class loader and starts
+	 * a batch run in it.
+	 * @param classPath Class path where the simulator classes are loaded from
+	 * @param confFiles The command line arguments with the settings files
+	 * @param firstConfIndex Index of the first settings file name
+	 * @param runIndex The run index of the run
+	 * @param concurrentRuns How many runs are run concurrently
+	 */
+	private static void startIsolatedRun(URL[] classPath, String[] confFiles,
+			int firstConfIndex, int runIndex, int concurrentRuns) {
+		URLClassLoader loader = new URLClassLoader(classPath, 
+				ClassLoader.getSystemClassLoader().getParent());
+		try {
+			Class<?> c = loader.loadClass(DTNSim.class.getName());
+			Method m = c.getDeclaredMethod(ISOLATED_RUN_METHOD_NAME, 
+					String[].class, int.class, int.class, int.class);
+			m.setAccessible(true);
+			m.invoke(null, confFiles, firstConfIndex, runIndex, 
+					concurrentRuns);
+		} catch (InvocationTargetException e) {
+			System.err.println("Batch run " + (runIndex+1) + " failed");
+			e.getCause().printStackTrace();
+			System.exit(-1);
+		} catch (Exception e) {
+			System.err.println("Failed to start batch run " + (runIndex+1));
+			e.printStackTrace();
+			System.exit(-1);
+		} finally {
+			/* release the class path's jar files of the finished run */
+			try {
+				loader.close();
+			} catch (IOException e) {
+				System.err.println("Failed to close the class loader of " +
+						"batch run " + (runIndex+1) + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Runs a single batch run. Called (using reflection) in a fresh class 
+	 * loader so all the static state is in its initial values.
+	 * @param confFiles The command line arguments with the settings files
+	 * @param firstConfIndex Index of the first settings file name
+	 * @param runIndex The run index of the run
+	 * @param nrofConcurrentRuns How many runs are run concurrently
+	 */
+	private static void runIsolated(String[] confFiles, int firstConfIndex,
+			int runIndex, int nrofConcurrentRuns) {
+		concurrentRuns = nrofConcurrentRuns;
+		initSettings(confFiles, firstConfIndex);
+		Settings.setRunIndex(runIndex);
+		new DTNSimTextUI().start();
+	}
+
+	/**
+	 * Returns how many batch runs are run concurrently in this JVM (the
+	 * current run included)
+	 * @return The number of concurrent runs, or 1 if the runs are not run
+	 * concurrently
+	 * @see #NROF_CONCURRENT_RUNS_S
+	 */
+	public static int getConcurrentRuns() {
+		return concurrentRuns;
+	}
+
 	/**
 	 * Registers a class for resetting. Reset is performed after every
 	 * batch run of the simulator to reset the class' state to initial
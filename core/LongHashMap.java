@@ -0,0 +1,211 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hash map with primitive long (or int) keys. The entries are stored in 
+ * open addressing tables (with linear probing) so no key objects or entry 
+ * objects are created when entries are added or looked up. Null values are
+ * not allowed (null is returned for keys that are not in the map). The 
+ * order of the entries returned by {@link #values()} is not defined.
+ */
+public class LongHashMap<V> {
+	/** default initial capacity of the table */
+	private static final int DEF_CAPACITY = 16;
+	/** multiplier for mixing the bits of the keys */
+	private static final long HASH_MULT = 0x9E3779B97F4A7C15L;
+
+	/** keys of the entries */
+	private long[] keys;
+	/** values of the entries (null in free slots) */
+	private Object[] values;
+	/** number of entries in the map */
+	private int size;
+	/** table length - 1 (table length is always a power of two) */
+	private int mask;
+
+	/**
+	 * Creates a new empty map with the default capacity
+	 */
+	public LongHashMap() {
+		this(DEF_CAPACITY / 2);
+	}
+
+	/**
+	 * Creates a new empty map with room for the given number of entries
+	 * @param expectedSize How many entries the map should fit without 
+	 * growing
+	 */
+	public LongHashMap(int expectedSize) {
+		int capacity = DEF_CAPACITY;
+		while (capacity < 2 * expectedSize) {
+			capacity *= 2;
+		}
+		allocate(capacity);
+	}
+
+	/**
+	 * Allocates new (empty) tables of the given length
+	 * @param capacity Length of the tables (a power of two)
+	 */
+	private void allocate(int capacity) {
+		this.keys = new long[capacity];
+		this.values = new Object[capacity];
+		this.mask = capacity - 1;
+		this.size = 0;
+	}
+
+	/**
+	 * Returns the index of the slot where the search for a key is started
+	 * @param key The key
+	 * @return The index of the first slot for the key
+	 */
+	private int slot(long key) {
+		long h = key * HASH_MULT;
+		return (int)(h ^ (h >>> 32)) & mask;
+	}
+
+	/**
+	 * Returns the index of the slot of the given key or -1 if the key is
+	 * not in the map
+	 * @param key The key to look for
+	 * @return The index of the slot or -1
+	 */
+	private int indexOf(long key) {
+		for (int i = slot(key); values[i] != null; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the value of a key
+	 * @param key The key
+	 * @return The value of the key or null if the key is not in the map
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		int i = indexOf(key);
+		return i < 0 ? null : (V)values[i];
+	}
+
+	/**
+	 * Returns true if the map contains the given key
+	 * @param key The key
+	 * @return true if the map contains the key
+	 */
+	public boolean containsKey(long key) {
+		return indexOf(key) >= 0;
+	}
+
+	/**
+	 * Puts a value to the map
+	 * @param key The key of the value
+	 * @param value The value (not null)
+	 * @return The old value of the key or null if there was no value
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value) {
+		assert value != null : "Null values are not allowed";
+		int i = slot(key);
+		for (; values[i] != null; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				V old = (V)values[i];
+				values[i] = value;
+				return old;
+			}
+		}
+		keys[i] = key;
+		values[i] = value;
+		size++;
+		if (2 * size > mask) {
+			grow();
+		}
+		return null;
+	}
+
+	/**
+	 * Doubles the size of the tables and puts the entries to the new ones
+	 */
+	@SuppressWarnings("unchecked")
+	private void grow() {
+		long[] oldKeys = this.keys;
+		Object[] oldValues = this.values;
+		allocate(2 * oldKeys.length);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] != null) {
+				put(oldKeys[i], (V)oldValues[i]);
+			}
+		}
+	}
+
+	/**
+	 * Removes a key from the map
+	 * @param key The key to remove
+	 * @return The removed value or null if the key was not in the map
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(long key) {
+		int gap = indexOf(key);
+		if (gap < 0) {
+			return null;
+		}
+		V old = (V)values[gap];
+
+		/* move the following entries of the probe sequence backwards so
+		 * that no entry is left behind a free slot */
+		for (int j = (gap + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+			int home = slot(keys[j]);
+			boolean stays = gap < j ? (gap < home && home <= j) :
+				(gap < home || home <= j);
+			if (!stays) {
+				keys[gap] = keys[j];
+				values[gap] = values[j];
+				gap = j;
+			}
+		}
+		values[gap] = null;
+		size--;
+		return old;
+	}
+
+	/**
+	 * Returns the number of entries in the map
+	 * @return The number of entries
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Removes all the entries from the map
+	 */
+	public void clear() {
+		for (int i = 0; i < values.length; i++) {
+			values[i] = null;
+		}
+		size = 0;
+	}
+
+	/**
+	 * Returns a new list of the values in the map
+	 * @return The values of the map
+	 */
+	@SuppressWarnings("unchecked")
+	public List<V> values() {
+		List<V> list = new ArrayList<V>(size);
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null) {
+				list.add((V)values[i]);
+			}
+		}
+		return list;
+	}
+}
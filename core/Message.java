@@ -8,32 +8,29 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 /**
- * A message that is created at a node or passed between nodes.
+ * A message that is created at a node or passed between nodes. The data that
+ * is the same for all replicates of a message (e.g., the sender, recipient,
+ * ID and size) is kept in a header that the replicates share and that is 
+ * copied only if a replicate changes it. Also the paths of the replicates
+ * share their common beginning.
  */
 public class Message implements Comparable<Message> {
 	/** Value for infinite TTL of message */
 	public static final int INFINITE_TTL = -1;
-	private DTNHost from;
-	private DTNHost to;
-	/** Identifier of the message */
-	private String id;
-	/** Size of the message (bytes) */
-	private int size;
-	/** List of nodes this message has passed */
-	private List<DTNHost> path; 
+	/** Data shared by the replicates of the message */
+	private Header header;
+	/** Last node of the nodes this message has passed */
+	private PathNode path; 
 	/** Next unique identifier to be given */
 	private static int nextUniqueId;
+	/** Handles of the message identifiers that have been used */
+	private static HashMap<String, Integer> handles;
 	/** Unique ID of this message */
 	private int uniqueId;
 	/** The time this message was received */
 	private double timeReceived;
-	/** The time when this message was created */
-	private double timeCreated;
-	/** Initial TTL of the message */
-	private int initTtl;
 	
 	/** utilizado na política LRF */
 	private double timeForwarded;
@@ -47,20 +44,14 @@ public class Message implements Comparable<Message> {
 	private int localNumberOfReplicas;
 	private int globalNumberOfReplicas;
 	private double higherDeliveryProb = 0.0;
-	
-	/** if a response to this message is required, this is the size of the 
-	 * response message (or 0 if no response is requested) */
-	private int responseSize;
-	/** if this message is a response message, this is set to the request msg*/
-	private Message requestMsg;
 	
 	/** Container for generic message properties. Note that all values
 	 * stored in the properties should be immutable because only a shallow
 	 * copy of the properties is made when replicating messages */
 	private Map<String, Object> properties;
-	
-	/** Application ID of the application that created the message */
-	private String	appID;
+	/** true if the properties container may be shared with other messages
+	 * (and must be copied before it is modified) */
+	private boolean propertiesShared;
 	
 	static {
 		reset();
@@ -76,20 +67,24 @@ public class Message implements Comparable<Message> {
 	 * @param size Size of the message (in bytes)
 	 */
 	public Message(DTNHost from, DTNHost to, String id, int size) {
-		this.from = from;
-		this.to = to;
-		this.id = id;
-		this.size = size;
-		this.path = new ArrayList<DTNHost>();
+		this(new Header(from, to, id, internId(id), size, 
+				SimClock.getTime()));
+		addNodeOnPath(from);
+		//System.out.println("Só pra ter certeza que mudou!");
+	}
+
+	/**
+	 * Creates a new Message with the given header and an empty path.
+	 * @param header The header of the message
+	 */
+	private Message(Header header) {
+		this.header = header;
+		this.path = null;
 		this.uniqueId = nextUniqueId;
 		
-		this.timeCreated = SimClock.getTime();
-		this.timeReceived = this.timeCreated;
-		this.initTtl = INFINITE_TTL;
-		this.responseSize = 0;
-		this.requestMsg = null;
+		this.timeReceived = SimClock.getTime();
 		this.properties = null;
-		this.appID = null;
+		this.propertiesShared = false;
 
 		//@julianofischer
 		this.timeForwarded=-1.0;
@@ -98,8 +93,18 @@ public class Message implements Comparable<Message> {
 		this.setHigherDeliveryProb(0.0);
 		
 		Message.nextUniqueId++;
-		addNodeOnPath(from);
-		//System.out.println("Só pra ter certeza que mudou!");
+	}
+
+	/**
+	 * Returns the header of this message for modifying it. If the header is
+	 * shared with other messages, this message gets its own copy first.
+	 * @return The header that only this message uses
+	 */
+	private Header ownHeader() {
+		if (this.header.shared) {
+			this.header = this.header.copy();
+		}
+		return this.header;
 	}
 	
 	/**
@@ -107,7 +112,7 @@ public class Message implements Comparable<Message> {
 	 * @return the node this message is originally from
 	 */
 	public DTNHost getFrom() {
-		return this.from;
+		return this.header.from;
 	}
 
 	/**
@@ -115,7 +120,7 @@ public class Message implements Comparable<Message> {
 	 * @return the node this message is originally to
 	 */
 	public DTNHost getTo() {
-		return this.to;
+		return this.header.to;
 	}
 
 	/**
@@ -123,7 +128,44 @@ public class Message implements Comparable<Message> {
 	 * @return The message id
 	 */
 	public String getId() {
-		return this.id;
+		return this.header.id;
+	}
+
+	/**
+	 * Returns the integer handle of the message's ID. All messages with the 
+	 * same ID (i.e., the replicates of a message) have the same handle and 
+	 * messages with different IDs have different handles.
+	 * @return The handle of the message id
+	 */
+	public int getHandle() {
+		return this.header.handle;
+	}
+
+	/**
+	 * Returns the handle of a message ID or -1 if no message with the ID
+	 * has been created
+	 * @param id The message ID
+	 * @return The handle of the ID or -1
+	 * @see #getHandle()
+	 */
+	public static int getHandle(String id) {
+		Integer handle = handles.get(id);
+		return handle == null ? -1 : handle;
+	}
+
+	/**
+	 * Returns the handle of a message ID, giving the next free handle to 
+	 * IDs that don't have one yet
+	 * @param id The message ID
+	 * @return The handle of the ID
+	 */
+	private static int internId(String id) {
+		Integer handle = handles.get(id);
+		if (handle == null) {
+			handle = handles.size();
+			handles.put(id, handle);
+		}
+		return handle;
 	}
 	
 	/**
@@ -140,7 +182,7 @@ public class Message implements Comparable<Message> {
 	 * @return the size of the message
 	 */
 	public int getSize() {
-		return this.size;
+		return this.header.size;
 	}
 
 	/**
@@ -148,15 +190,40 @@ public class Message implements Comparable<Message> {
 	 * @param node The node to add
 	 */
 	public void addNodeOnPath(DTNHost node) {
-		this.path.add(node);
+		this.path = new PathNode(node, this.path);
 	}
 	
 	/**
-	 * Returns a list of nodes this message has passed so far
+	 * Returns a list of nodes this message has passed so far. The list is
+	 * a new copy of the path so it can be modified freely.
 	 * @return The list as vector
 	 */
 	public List<DTNHost> getHops() {
-		return this.path;
+		int length = this.path == null ? 0 : this.path.length;
+		List<DTNHost> hops = new ArrayList<DTNHost>(length);
+		for (int i = 0; i < length; i++) {
+			hops.add(null);
+		}
+		int i = length;
+		for (PathNode n = this.path; n != null; n = n.previous) {
+			hops.set(--i, n.host);
+		}
+		return hops;
+	}
+
+	/**
+	 * Returns true if the given node is on the list of nodes this message
+	 * has passed so far
+	 * @param node The node to look for
+	 * @return true if the message has passed the node
+	 */
+	public boolean isOnPath(DTNHost node) {
+		for (PathNode n = this.path; n != null; n = n.previous) {
+			if (n.host == node) {
+				return true;
+			}
+		}
+		return false;
 	}
 	
 	/**
@@ -164,7 +231,7 @@ public class Message implements Comparable<Message> {
 	 * @return the amount of hops this message has passed
 	 */
 	public int getHopCount() {
-		return this.path.size() -1;
+		return (this.path == null ? 0 : this.path.length) -1;
 	}
 	
 	/** 
@@ -174,12 +241,12 @@ public class Message implements Comparable<Message> {
 	 * @return The TTL (minutes)
 	 */
 	public int getTtl() {
-		if (this.initTtl == INFINITE_TTL) {
+		if (this.header.initTtl == INFINITE_TTL) {
 			return Integer.MAX_VALUE;
 		}
 		else {
-			return (int)( ((this.initTtl * 60) -
-					(SimClock.getTime()-this.timeCreated)) /60.0 );
+			return (int)( ((this.header.initTtl * 60) -
+					(SimClock.getTime()-this.header.timeCreated)) /60.0 );
 		}
 	}
 	
@@ -191,7 +258,7 @@ public class Message implements Comparable<Message> {
 	 * @param ttl The time-to-live to set
 	 */
 	public void setTtl(int ttl) {
-		this.initTtl = ttl;
+		ownHeader().initTtl = ttl;
 	}
 	
 	/**
@@ -215,7 +282,7 @@ public class Message implements Comparable<Message> {
 	 * @return the time when this message was created
 	 */
 	public double getCreationTime() {
-		return this.timeCreated;
+		return this.header.timeCreated;
 	}
 	
 	/**
@@ -223,7 +290,7 @@ public class Message implements Comparable<Message> {
 	 * @param request The request message
 	 */
 	public void setRequest(Message request) {
-		this.requestMsg = request;
+		ownHeader().requestMsg = request;
 	}
 	
 	/**
@@ -232,7 +299,7 @@ public class Message implements Comparable<Message> {
 	 * @return the message this message is response to
 	 */
 	public Message getRequest() {
-		return this.requestMsg;
+		return this.header.requestMsg;
 	}
 	
 	/**
@@ -240,7 +307,7 @@ public class Message implements Comparable<Message> {
 	 * @return true if this message is a response message
 	 */
 	public boolean isResponse() {
-		return this.requestMsg != null;
+		return this.header.requestMsg != null;
 	}
 	
 	/**
@@ -249,7 +316,7 @@ public class Message implements Comparable<Message> {
 	 * @param size Size of the response message
 	 */
 	public void setResponseSize(int size) {
-		this.responseSize = size;
+		ownHeader().responseSize = size;
 	}
 	
 	/**
@@ -258,7 +325,7 @@ public class Message implements Comparable<Message> {
 	 * @return the size of the requested response message
 	 */
 	public int getResponseSize() {
-		return responseSize;
+		return this.header.responseSize;
 	}
 	
 	/**
@@ -266,22 +333,26 @@ public class Message implements Comparable<Message> {
 	 * @return a string representation of the message
 	 */
 	public String toString () {
-		return id;
+		return this.header.id;
 	}
 
 	/**
-	 * Deep copies message data from other message. If new fields are
+	 * Copies message data from other message. The path and the properties
+	 * are shared until one of the messages modifies them. If new fields are
 	 * introduced to this class, most likely they should be copied here too
 	 * (unless done in constructor).
 	 * @param m The message where the data is copied
 	 */
 	protected void copyFrom(Message m) {
-		this.path = new ArrayList<DTNHost>(m.path);
-		this.timeCreated = m.timeCreated;
-		this.responseSize = m.responseSize;
-		this.requestMsg  = m.requestMsg;
-		this.initTtl = m.initTtl;
-		this.appID = m.appID;
+		this.path = m.path;
+		if (this.header != m.header) {
+			Header h = ownHeader();
+			h.timeCreated = m.header.timeCreated;
+			h.responseSize = m.header.responseSize;
+			h.requestMsg  = m.header.requestMsg;
+			h.initTtl = m.header.initTtl;
+			h.appID = m.header.appID;
+		}
 
 		//@julianofischer
 		/* O número de réplicas global é "transferido" para a mensagem
@@ -294,10 +365,9 @@ public class Message implements Comparable<Message> {
 		//this.setHigherDeliveryProb(m.getHigherDeliveryProb());
 		
 		if (m.properties != null) {
-			Set<String> keys = m.properties.keySet();
-			for (String key : keys) {
-				updateProperty(key, m.getProperty(key));
-			}
+			this.properties = m.properties;
+			this.propertiesShared = true;
+			m.propertiesShared = true;
 		}
 	}
 	
@@ -347,6 +417,10 @@ public class Message implements Comparable<Message> {
 			   that don't use the property feature  */
 			this.properties = new HashMap<String, Object>();
 		}		
+		else if (this.propertiesShared) {
+			this.properties = new HashMap<String, Object>(this.properties);
+			this.propertiesShared = false;
+		}
 
 		this.properties.put(key, value);
 	}
@@ -356,7 +430,8 @@ public class Message implements Comparable<Message> {
 	 * @return A replicate of the message
 	 */
 	public Message replicate() {
-		Message m = new Message(from, to, id, size);
+		this.header.shared = true;
+		Message m = new Message(this.header);
 		m.copyFrom(this);
 		return m;
 	}
@@ -374,20 +449,21 @@ public class Message implements Comparable<Message> {
 	 */
 	public static void reset() {
 		nextUniqueId = 0;
+		handles = new HashMap<String, Integer>();
 	}
 
 	/**
 	 * @return the appID
 	 */
 	public String getAppID() {
-		return appID;
+		return this.header.appID;
 	}
 
 	/**
 	 * @param appID the appID to set
 	 */
 	public void setAppID(String appID) {
-		this.appID = appID;
+		ownHeader().appID = appID;
 	}
 
 	public void setTimeForwarded(double timeForwarded) {
@@ -422,4 +498,81 @@ public class Message implements Comparable<Message> {
 		this.higherDeliveryProb = higherDeliveryProb;
 	}
 	
+	/**
+	 * The data of a message that is the same for all its replicates. A 
+	 * header that is shared by several messages is not modified anymore 
+	 * (see {@link Message#ownHeader()}).
+	 */
+	private static class Header {
+		private final DTNHost from;
+		private final DTNHost to;
+		/** Identifier of the message */
+		private final String id;
+		/** Integer handle of the identifier */
+		private final int handle;
+		/** Size of the message (bytes) */
+		private final int size;
+		/** The time when the message was created */
+		private double timeCreated;
+		/** Initial TTL of the message */
+		private int initTtl;
+		/** if a response to the message is required, this is the size of the
+		 * response message (or 0 if no response is requested) */
+		private int responseSize;
+		/** if the message is a response message, this is set to the request 
+		 * msg */
+		private Message requestMsg;
+		/** Application ID of the application that created the message */
+		private String appID;
+		/** true if more than one message may use this header */
+		private boolean shared;
+
+		public Header(DTNHost from, DTNHost to, String id, int handle, 
+				int size, double timeCreated) {
+			this.from = from;
+			this.to = to;
+			this.id = id;
+			this.handle = handle;
+			this.size = size;
+			this.timeCreated = timeCreated;
+			this.initTtl = INFINITE_TTL;
+			this.responseSize = 0;
+			this.requestMsg = null;
+			this.appID = null;
+			this.shared = false;
+		}
+
+		/**
+		 * Returns a copy of this header that is not shared
+		 * @return A copy of the header
+		 */
+		public Header copy() {
+			Header h = new Header(from, to, id, handle, size, timeCreated);
+			h.initTtl = this.initTtl;
+			h.responseSize = this.responseSize;
+			h.requestMsg = this.requestMsg;
+			h.appID = this.appID;
+			return h;
+		}
+	}
+
+	/**
+	 * A node on the path of a message. The path nodes are never modified so
+	 * replicates of a message share the path nodes up to the host where 
+	 * they were replicated.
+	 */
+	private static class PathNode {
+		/** The host on the path */
+		private final DTNHost host;
+		/** The previous node on the path (null for the first node) */
+		private final PathNode previous;
+		/** Number of nodes on the path up to (and including) this node */
+		private final int length;
+
+		public PathNode(DTNHost host, PathNode previous) {
+			this.host = host;
+			this.previous = previous;
+			this.length = previous == null ? 1 : previous.length + 1;
+		}
+	}
 }
@@ -6,8 +6,12 @@ package core;
 
 import interfaces.ConnectivityGrid;
 import interfaces.ConnectivityOptimizer;
+import interfaces.HashedConnectivityGrid;
+import interfaces.HostConnectivityGrid;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 
@@ -36,6 +40,17 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 	private static final int CON_DOWN = 2;
 	private static int nextAddress = 0;
 	private static Random rng;
+	/** name of the connectivity optimizer to use (null if the setting is
+	 * not read yet) */
+	private static String optimizerName;
+	/** x coordinates of the interfaces' hosts (indexed by the address of
+	 * the interface) */
+	private static double[] xs;
+	/** y coordinates of the interfaces' hosts (indexed by the address of
+	 * the interface) */
+	private static double[] ys;
+	/** initial size of the coordinate arrays */
+	private static final int INITIAL_POSITIONS = 256;
 	protected DTNHost host = null;
 
 	protected String interfacetype;
@@ -43,11 +58,33 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 	private List<ConnectionListener> cListeners = null; // list of listeners
 	private int address; // network interface address
 	protected double transmitRange;
+	/** the largest squared distance whose square root is within the 
+	 * transmit range */
+	private double maxDistanceSq;
 	protected int transmitSpeed;
 	protected ConnectivityOptimizer optimizer = null;
 	/** scanning interval, or 0.0 if n/a */
 	private double scanInterval;
 	private double lastScanTime;
+	/** interfaces found within range by {@link #findNearInterfaces()} */
+	private ArrayList<NetworkInterface> nearInRange = 
+		new ArrayList<NetworkInterface>();
+	/** true if {@link #nearInRange} should be used at the next update, false
+	 * if the optimizer should be queried */
+	private boolean nearInRangeFound = false;
+	/** reused list for the interfaces returned by the optimizer */
+	private ArrayList<NetworkInterface> nearBuffer = 
+		new ArrayList<NetworkInterface>();
+	/** version of the interfaces in {@link #nearBuffer} (see 
+	 * {@link ConnectivityOptimizer#getNearInterfacesVersion(
+	 * NetworkInterface)}) */
+	private long nearBufferVersion = ConnectivityOptimizer.UNKNOWN_VERSION;
+	/** has the host moved after the location of this interface was updated
+	 * in the optimizer */
+	private boolean moved = false;
+	/** true if the connections out of range were already torn down for the
+	 * next update (see {@link #disconnectNotNear()}) */
+	private boolean connectionsChecked = false;
 
 
 	static {
@@ -61,6 +98,9 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 	public static void reset() {
 		nextAddress = 0;
 		rng = new Random(0);
+		optimizerName = null;
+		xs = new double[INITIAL_POSITIONS];
+		ys = new double[INITIAL_POSITIONS];
 	}
 	
 	/**
@@ -75,6 +115,7 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 		this.transmitSpeed = s.getInt(TRANSMIT_SPEED_S);
 		ensurePositiveValue(transmitRange, TRANSMIT_RANGE_S);
 		ensurePositiveValue(transmitSpeed, TRANSMIT_SPEED_S);
+		this.maxDistanceSq = maxDistanceSq(this.transmitRange);
 		if (s.contains(SCAN_INTERVAL_S)) {
 			scanInterval =  s.getDouble(SCAN_INTERVAL_S);
 		} else {
@@ -102,6 +143,8 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 		this.interfacetype = ni.interfacetype;
 		this.transmitRange = ni.transmitRange;
 		this.transmitSpeed = ni.transmitSpeed;
+		this.maxDistanceSq = ni.maxDistanceSq;
+		this.scanInterval = ni.scanInterval;
 		
 		/* draw lastScanTime of [0 -- scanInterval] */
 		this.lastScanTime = rng.nextDouble() * scanInterval;
@@ -124,11 +167,62 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 		comBus.subscribe(RANGE_ID, this);
 		comBus.subscribe(SPEED_ID, this);
 		
-		optimizer = ConnectivityGrid.ConnectivityGridFactory(
-				this.interfacetype.hashCode(), transmitRange);
+		String name = getOptimizerName();
+		if (name.equals(World.HASHED_GRID_OPTIMIZER)) {
+			optimizer = HashedConnectivityGrid.HashedConnectivityGridFactory(
+					this.interfacetype.hashCode(), transmitRange);
+		}
+		else if (name.equals(World.HOST_GRID_OPTIMIZER)) {
+			optimizer = HostConnectivityGrid.HostConnectivityGridFactory(
+					transmitRange);
+		}
+		else {
+			optimizer = ConnectivityGrid.ConnectivityGridFactory(
+					this.interfacetype.hashCode(), transmitRange);
+		}
+		locationChanged();
 		optimizer.addInterface(this);		
 	}
 
+	/**
+	 * Stores the current location of the host to the coordinate arrays that
+	 * are used in the range checks. Must be called every time the location
+	 * of the host changes.
+	 */
+	public void locationChanged() {
+		Coord c = this.host.getLocation();
+		if (xs[this.address] != c.getX() || ys[this.address] != c.getY()) {
+			xs[this.address] = c.getX();
+			ys[this.address] = c.getY();
+			this.moved = true;
+		}
+	}
+
+	/**
+	 * Returns the name of the connectivity optimizer that should be used
+	 * @return {@link World#DENSE_GRID_OPTIMIZER}, 
+	 * {@link World#HASHED_GRID_OPTIMIZER} or {@link World#HOST_GRID_OPTIMIZER}
+	 * @throws SettingsError if the optimizer setting has an unknown value
+	 * @see World#CON_OPTIMIZER_S
+	 */
+	private static String getOptimizerName() {
+		if (optimizerName == null) {
+			Settings s = new Settings(World.SETTINGS_NS);
+			String name = World.DENSE_GRID_OPTIMIZER;
+			if (s.contains(World.CON_OPTIMIZER_S)) {
+				name = s.getSetting(World.CON_OPTIMIZER_S);
+			}
+			if (!name.equals(World.DENSE_GRID_OPTIMIZER) && 
+					!name.equals(World.HASHED_GRID_OPTIMIZER) &&
+					!name.equals(World.HOST_GRID_OPTIMIZER)) {
+				throw new SettingsError("Unknown value '" + name + "' for " +
+						World.SETTINGS_NS + "." + World.CON_OPTIMIZER_S);
+			}
+			optimizerName = name;
+		}
+		return optimizerName;
+	}
+
 	/**
 	 * For checking what interface type this interface is
 	 */
@@ -150,9 +244,33 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 	 * @return The next address.
 	 */
 	private synchronized static int getNextNetAddress() {
+		if (nextAddress >= xs.length) {
+			xs = Arrays.copyOf(xs, xs.length * 2);
+			ys = Arrays.copyOf(ys, ys.length * 2);
+		}
 		return nextAddress++;	
 	}
 
+	/**
+	 * Returns the largest squared distance whose square root is not larger
+	 * than the given range, i.e., comparing a squared distance to the 
+	 * returned value gives the same result as comparing the distance to the
+	 * range.
+	 * @param range The range
+	 * @return The largest squared distance within range
+	 */
+	private static double maxDistanceSq(double range) {
+		double sq = range * range;
+		while (Math.sqrt(sq) > range) {
+			sq = Math.nextAfter(sq, Double.NEGATIVE_INFINITY);
+		}
+		while (sq < Double.POSITIVE_INFINITY && 
+				Math.sqrt(Math.nextUp(sq)) <= range) {
+			sq = Math.nextUp(sq);
+		}
+		return sq;
+	}
+
 	/**
 	 * Returns the network interface address.
 	 * @return The address (integer)
@@ -169,6 +287,14 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 		return this.transmitRange;
 	}
 
+	/**
+	 * Returns the scan interval of this network layer
+	 * @return the scan interval (0 if the interface is always scanning)
+	 */
+	public double getScanInterval() {
+		return this.scanInterval;
+	}
+
 	/**
 	 * Returns the transmit speed of this network layer
 	 * @return the transmit speed
@@ -208,6 +334,24 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 		return true;
 	}
 
+	/**
+	 * Returns false if {@link #isScanning()} would certainly return false 
+	 * now, i.e., the interface is waiting for its next scan round. Unlike
+	 * {@link #isScanning()}, this doesn't start a new scan round so the
+	 * interfaces that are not scanning can skip looking up the interfaces
+	 * near them without changing the scanning schedule.
+	 * @return false if the interface is not scanning, true if it is (or 
+	 * can start) scanning
+	 */
+	protected boolean canBeScanning() {
+		if (scanInterval <= 0.0) {
+			return true;
+		}
+		double simTime = SimClock.getTime();
+		return simTime == lastScanTime || 
+			simTime > lastScanTime + scanInterval;
+	}
+
 	/**
 	 * Connects the interface to another interface.
 	 * 
@@ -256,23 +400,27 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 
 		this.host.connectionDown(con);
 		anotherInterface.getHost().connectionDown(con);
+		con.release(); // interfaces don't hold the connection anymore
 	}
 
 	/**
 	 * Returns true if another interface is within radio range of this interface
 	 * and this interface is also within radio range of the another interface.
+	 * The result is the same for both of the interfaces, so connectivity 
+	 * optimizers may check each pair of interfaces only once. The squared
+	 * distance is compared so no square root is needed.
 	 * @param anotherInterface The another interface
 	 * @return True if the interface is within range, false if not
 	 */
-	protected boolean isWithinRange(NetworkInterface anotherInterface) {
-		double smallerRange = anotherInterface.getTransmitRange();
-		double myRange = getTransmitRange();
-		if (myRange < smallerRange) {
-			smallerRange = myRange;
+	public boolean isWithinRange(NetworkInterface anotherInterface) {
+		double smallerSq = anotherInterface.maxDistanceSq;
+		if (this.maxDistanceSq < smallerSq) {
+			smallerSq = this.maxDistanceSq;
 		}
 
-		return this.host.getLocation().distance(
-				anotherInterface.getHost().getLocation()) <= smallerRange;
+		double dx = xs[this.address] - xs[anotherInterface.address];
+		double dy = ys[this.address] - ys[anotherInterface.address];
+		return dx*dx + dy*dy <= smallerSq;
 	}
 	
 	/**
@@ -290,6 +438,145 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 		return false;
 	}
 	
+	/**
+	 * Updates the location of this interface in the connectivity optimizer.
+	 * Nothing is done if the host hasn't moved since the last update.
+	 */
+	public void updateLocation() {
+		if (!this.moved) {
+			return;
+		}
+		this.moved = false;
+		optimizer.updateLocation(this);
+	}
+
+	/**
+	 * Looks up the interfaces that are within range of this interface and
+	 * stores them for the next {@link #update()}. Doesn't change the state of
+	 * any other object so the method can be called for different interfaces
+	 * concurrently (as long as no locations are changed meanwhile).
+	 */
+	public void findNearInterfaces() {
+		if (!canBeScanning()) {
+			this.nearInRangeFound = false;
+			return; /* no new connections outside the scan rounds */
+		}
+		updateNearBuffer();
+		nearInRange.clear();
+		for (int j = 0, n = nearBuffer.size(); j < n; j++) {
+			NetworkInterface i = nearBuffer.get(j);
+			if (i != this && isWithinRange(i)) {
+				nearInRange.add(i);
+			}
+		}
+		this.nearInRangeFound = true;
+	}
+
+	/**
+	 * Starts a look up of the interfaces within range that is done by the
+	 * connectivity optimizer instead of this interface (see 
+	 * {@link ConnectivityOptimizer#findNearInterfaces(
+	 * java.util.concurrent.ForkJoinPool)}). The optimizer adds the found
+	 * interfaces using {@link #addNearInterface(NetworkInterface)} and they
+	 * are used at the next {@link #update()}.
+	 */
+	public void clearNearInterfaces() {
+		nearInRange.clear();
+		this.nearInRangeFound = true;
+	}
+
+	/**
+	 * Adds an interface to the interfaces within range of this interface.
+	 * @param ni The interface within range
+	 * @see #clearNearInterfaces()
+	 */
+	public void addNearInterface(NetworkInterface ni) {
+		nearInRange.add(ni);
+	}
+
+	/**
+	 * Tears down the connections to the interfaces that are not among the
+	 * interfaces within range added by the connectivity optimizer (see 
+	 * {@link #clearNearInterfaces()}). The ranges of the connections are 
+	 * then not checked again at the next {@link #update()}.
+	 */
+	public void disconnectNotNear() {
+		for (int i=0; i<this.connections.size(); ) {
+			Connection con = this.connections.get(i);
+			NetworkInterface anotherInterface = con.getOtherInterface(this);
+
+			if (!nearInRange.contains(anotherInterface)) {
+				disconnect(con,anotherInterface);
+				connections.remove(i);
+			}
+			else {
+				i++;
+			}
+		}
+		this.connectionsChecked = true;
+	}
+
+	/**
+	 * Returns true if the interface should check at this update if its
+	 * connections are still within range, or false if the connections out
+	 * of range were already torn down (see {@link #disconnectNotNear()}).
+	 * @return True if the ranges should be checked
+	 */
+	protected boolean shouldCheckConnections() {
+		if (this.connectionsChecked) {
+			this.connectionsChecked = false;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the connectivity optimizer of this interface
+	 * @return the connectivity optimizer of this interface
+	 */
+	public ConnectivityOptimizer getOptimizer() {
+		return this.optimizer;
+	}
+
+	/**
+	 * Returns the interfaces that could be connected to this interface. If
+	 * the interfaces within range were looked up beforehand (using 
+	 * {@link #findNearInterfaces()}), those are returned (once). Otherwise
+	 * the connectivity optimizer is queried. If the interface can't be 
+	 * scanning at the moment (see {@link #canBeScanning()}), no interfaces
+	 * are returned and the optimizer is not queried at all. The returned 
+	 * list is reused by the next call so it must not be stored.
+	 * @return The interfaces that could be connected
+	 */
+	protected List<NetworkInterface> getNearInterfaces() {
+		if (!canBeScanning()) {
+			this.nearInRangeFound = false;
+			return Collections.emptyList();
+		}
+		if (!this.nearInRangeFound) {
+			updateNearBuffer();
+			return nearBuffer;
+		}
+		this.nearInRangeFound = false;
+		return nearInRange;
+	}
+
+	/**
+	 * Queries the optimizer for the interfaces that could be connected to 
+	 * this interface and stores them to {@link #nearBuffer}. If the 
+	 * optimizer tells that they can't have changed since the last query
+	 * (e.g., none of the hosts nearby moved to another cell), the old ones 
+	 * are kept.
+	 */
+	private void updateNearBuffer() {
+		long version = optimizer.getNearInterfacesVersion(this);
+		if (version == ConnectivityOptimizer.UNKNOWN_VERSION || 
+				version != this.nearBufferVersion) {
+			optimizer.getNearInterfaces(this, nearBuffer);
+			this.nearBufferVersion = version;
+		}
+	}
+
 	/**
 	 * Makes sure that a value is positive
 	 * @param value Value to check
@@ -309,6 +596,17 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 	 */
 	abstract public void update();
 
+	/**
+	 * Updates the state of the current connections that doesn't depend on
+	 * the ranges of the interfaces (e.g., transmission speeds and transfer
+	 * progress of variable bit-rate connections). This is done as a part of
+	 * {@link #update()}, but is called on its own once per update interval
+	 * when the connections are set up and torn down by someone else (see 
+	 * {@link World#CONTINUOUS_CONTACTS_S}). Default implementation does 
+	 * nothing.
+	 */
+	public void updateConnections() { }
+
 	/**
 	 * Notifies all the connection listeners about a change in connections.
 	 * @param type Type of the change (e.g. {@link #CON_DOWN} )
@@ -347,6 +645,7 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 		}
 		else if (key.equals(RANGE_ID)) {
 			this.transmitRange = (Double)newValue;	
+			this.maxDistanceSq = maxDistanceSq(this.transmitRange);
 		}
 		else {
 			throw new SimError("Unexpected combus ID " + key);
@@ -399,6 +698,7 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 		anotherNode.connectionDown(con);
 
 		connections.remove(index);
+		con.release(); // interfaces don't hold the connection anymore
 	}
 
 	/**
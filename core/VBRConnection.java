@@ -4,6 +4,9 @@
  */
 package core;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import routing.MessageRouter;
 
 /**
@@ -14,6 +17,20 @@ public class VBRConnection extends Connection {
 	private int msgsize;
 	private int msgsent;
 	private int currentspeed = 0;
+	/** recycled connections that can be reused */
+	private static List<VBRConnection> pool;
+
+	static {
+		DTNSim.registerForReset(VBRConnection.class.getCanonicalName());
+		reset();
+	}
+
+	/**
+	 * Resets the static fields of the class
+	 */
+	public static void reset() {
+		pool = new ArrayList<VBRConnection>();
+	}
 	
 	/**
 	 * Creates a new connection between nodes and sets the connection
@@ -28,6 +45,39 @@ public class VBRConnection extends Connection {
 	    super(fromNode, fromInterface, toNode, toInterface);
 		this.msgsent = 0;
 	}
+
+	/**
+	 * Returns a new connection between nodes with the connection state 
+	 * "up". If connection pooling is enabled and there are recycled 
+	 * connections available, one of those is reinitialized and returned.
+	 * @param fromNode The node that initiated the connection
+	 * @param fromInterface The interface that initiated the connection
+	 * @param toNode The node in the other side of the connection
+	 * @param toInterface The interface in the other side of the connection
+	 * @return The connection
+	 * @see World#CONNECTION_POOL_S
+	 */
+	public static VBRConnection obtain(DTNHost fromNode, 
+			NetworkInterface fromInterface, DTNHost toNode, 
+			NetworkInterface toInterface) {
+		if (pool.isEmpty()) {
+			return new VBRConnection(fromNode, fromInterface, toNode, 
+					toInterface);
+		}
+		VBRConnection con = pool.remove(pool.size() - 1);
+		con.init(fromNode, fromInterface, toNode, toInterface);
+		con.msgsize = 0;
+		con.msgsent = 0;
+		con.currentspeed = 0;
+		return con;
+	}
+
+	@Override
+	protected void recycle() {
+		if (isPoolUsed()) {
+			pool.add(this);
+		}
+	}
 	
 	/**
 	 * Sets a message that this connection is currently transferring. If message
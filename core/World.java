@@ -8,11 +8,14 @@ import input.EventQueue;
 import input.ExternalEvent;
 import input.ScheduledUpdatesQueue;
 import interfaces.ConnectivityGrid;
+import interfaces.ConnectivityOptimizer;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * World contains all the nodes and is responsible for updating their
@@ -31,17 +34,139 @@ public class World {
 	 * @see ConnectivityGrid
 	 */
 	public static final String CELL_SIZE_MULT_S = "cellSizeMult";
+	/**
+	 * Connectivity optimizer -setting id ({@value}). Name of the optimizer
+	 * class used for finding the interfaces that are close enough to be 
+	 * connected: {@link #DENSE_GRID_OPTIMIZER} (a grid covering the whole 
+	 * world) or {@link #HASHED_GRID_OPTIMIZER} (a sparse grid that contains
+	 * only the cells with interfaces; better for huge worlds where the nodes
+	 * are clustered and for negative coordinates). Both optimizers give the 
+	 * same results for worlds with non-negative coordinates. With 
+	 * {@link #HOST_GRID_OPTIMIZER} all interface types share one grid of 
+	 * hosts (better for hosts with several interfaces), but the order of
+	 * the found interfaces and thus the results are different.
+	 * Default is {@link #DENSE_GRID_OPTIMIZER}.
+	 */
+	public static final String CON_OPTIMIZER_S = "connectivityOptimizer";
+	/** {@link #CON_OPTIMIZER_S} value for the dense grid ({@value})
+	 * @see ConnectivityGrid */
+	public static final String DENSE_GRID_OPTIMIZER = "ConnectivityGrid";
+	/** {@link #CON_OPTIMIZER_S} value for the sparse grid ({@value})
+	 * @see interfaces.HashedConnectivityGrid */
+	public static final String HASHED_GRID_OPTIMIZER = 
+		"HashedConnectivityGrid";
+	/** {@link #CON_OPTIMIZER_S} value for the shared grid of hosts 
+	 * ({@value})
+	 * @see interfaces.HostConnectivityGrid */
+	public static final String HOST_GRID_OPTIMIZER = "HostConnectivityGrid";
 	/**
 	 * Should the order of node updates be different (random) within every 
 	 * update step -setting id ({@value}). Boolean (true/false) variable. 
 	 * Default is @link {@link #DEF_RANDOMIZE_UPDATES}.
 	 */
 	public static final String RANDOMIZE_UPDATES_S = "randomizeUpdateOrder";
+	/**
+	 * Should the neighbor search of the network interfaces be run in parallel
+	 * -setting id ({@value}). Boolean (true/false) variable. If true, the
+	 * grid locations of all interfaces are updated first and then all
+	 * interfaces look up the interfaces within their range concurrently
+	 * before the connections and routers are updated (in the normal update
+	 * order). The neighbor search itself does not depend on the number of
+	 * threads (but anything relying on object identity hash codes, like the
+	 * random message queue mode, may), and the results are not identical
+	 * with the serial update loop because all the interfaces see the
+	 * up-to-date locations of the other interfaces. 
+	 * Default is {@link #DEF_PARALLEL_UPDATES}.
+	 */
+	public static final String PARALLEL_UPDATES_S = "parallelUpdates";
+	/**
+	 * Should the interfaces within range be looked up by the connectivity
+	 * optimizers for all interfaces at once -setting id ({@value}). Boolean
+	 * (true/false) variable. If true, the grid locations of all interfaces
+	 * are updated first and then the optimizers check every pair of 
+	 * interfaces in neighboring cells once (instead of once from both
+	 * interfaces' side) before the connections and routers are updated
+	 * (in the normal update order). The connectivity grid also tears down
+	 * the connections that went out of range in its own (cell) order before
+	 * the updates, so the tear-down order differs from the other modes. 
+	 * If parallel updates are on too, the optimizers check the pairs in 
+	 * parallel.
+	 * Default is {@link #DEF_PAIR_SWEEP}.
+	 */
+	public static final String PAIR_SWEEP_S = "pairSweep";
+	/**
+	 * Should the connections be created and torn down at the exact times
+	 * when the hosts get within or out of range -setting id ({@value}). 
+	 * Boolean (true/false) variable. If true, the hosts are moved at the
+	 * start of every update interval and the times when the interfaces get
+	 * within and out of range during the interval are solved from the
+	 * (linear) movement (see {@link ContactDetector}). The connection events
+	 * are processed in time order with the other external events, so also 
+	 * contacts shorter than the update interval are found and larger
+	 * update intervals can be used. The network interfaces' range checks are
+	 * not used in this mode (but the speeds and transfers of the connections
+	 * are updated once per update interval, see 
+	 * {@link NetworkInterface#updateConnections()}) and, while the events 
+	 * are processed, the hosts are already at their locations of the end of
+	 * the interval. Scan intervals ({@link NetworkInterface#SCAN_INTERVAL_S})
+	 * can't be used in this mode because a contact is found only once, when
+	 * it starts.
+	 * Default is {@link #DEF_CONTINUOUS_CONTACTS}.
+	 */
+	public static final String CONTINUOUS_CONTACTS_S = "continuousContacts";
+	/**
+	 * Should the nodes be moved in parallel -setting id ({@value}). Boolean
+	 * (true/false) variable. If true, the nodes whose movement model allows
+	 * it (see {@link DTNHost#canMoveConcurrently()}) get a random number
+	 * stream of their own and are moved concurrently; the rest of the nodes
+	 * are moved serially. The results do not depend on the number of 
+	 * threads, but differ from the ones of serial movement because the
+	 * random numbers are drawn from different streams.
+	 * Default is {@link #DEF_PARALLEL_MOVEMENT}.
+	 */
+	public static final String PARALLEL_MOVEMENT_S = "parallelMovement";
+	/**
+	 * Should the connection objects be reused -setting id ({@value}).
+	 * Boolean (true/false) variable. If true, the connections that have gone
+	 * down are put to a pool when nobody holds them anymore (see 
+	 * {@link Connection#release()}) and the new connections are taken from
+	 * the pool. Routers and other modules must then not keep references to
+	 * connections that are down unless they {@link Connection#retain()} 
+	 * them (like {@link routing.ActiveRouter} does for the connections it 
+	 * sends messages over). The results are the same as without the pool.
+	 * Default is {@link #DEF_CONNECTION_POOL}.
+	 */
+	public static final String CONNECTION_POOL_S = "connectionPool";
+	/**
+	 * Number of worker threads used in parallel updates and movement
+	 * -setting id ({@value}). Integer value. Default is the number of
+	 * available processors, divided by the number of batch runs that are
+	 * run concurrently (see {@link DTNSim#NROF_CONCURRENT_RUNS_S}) but at
+	 * least one.
+	 */
+	public static final String NROF_THREADS_S = "nrofThreads";
 	/** default value for cell size multiplier ({@value}) */
 	public static final int DEF_CON_CELL_SIZE_MULT = 5;
 	/** should the update order of nodes be randomized -setting's default value
 	 * ({@value}) */
 	public static final boolean DEF_RANDOMIZE_UPDATES = true;
+	/** should the neighbor search be done in parallel -setting's default
+	 * value ({@value}) */
+	public static final boolean DEF_PARALLEL_UPDATES = false;
+	/** should the optimizers look up the interfaces within range for all
+	 * interfaces at once -setting's default value ({@value}) */
+	public static final boolean DEF_PAIR_SWEEP = false;
+	/** should the connection times be solved from the movement -setting's
+	 * default value ({@value}) */
+	public static final boolean DEF_CONTINUOUS_CONTACTS = false;
+	/** should the nodes be moved in parallel -setting's default value
+	 * ({@value}) */
+	public static final boolean DEF_PARALLEL_MOVEMENT = false;
+	/** should the connection objects be reused -setting's default value
+	 * ({@value}) */
+	public static final boolean DEF_CONNECTION_POOL = false;
+	/** how many hosts are handled in one parallel task at most */
+	private static final int PARALLEL_BATCH_SIZE = 32;
 
 	private int sizeX;
 	private int sizeY;
@@ -64,6 +189,24 @@ public class World {
 
 	/** single ConnectivityCell's size is biggest radio range times this */
 	private int conCellSizeMult;
+	/** thread pool for parallel updates and movement (null if both are 
+	 * serial) */
+	private ForkJoinPool pool;
+	/** should the neighbor search be done in parallel */
+	private boolean parallelUpdates;
+	/** should the optimizers look up the interfaces within range */
+	private boolean pairSweep;
+	/** connectivity optimizers of the hosts' interfaces (used in pair sweep
+	 * mode) */
+	private List<ConnectivityOptimizer> optimizers;
+	/** finds the connection events in the continuous contacts mode (null if
+	 * the mode is off) */
+	private ContactDetector contactDetector;
+	/** should the nodes be moved in parallel */
+	private boolean parallelMovement;
+	/** active hosts of the current update round (used in parallel and pair
+	 * sweep modes) */
+	private ArrayList<DTNHost> activeHosts;
 
 	/**
 	 * Constructor.
@@ -117,6 +260,67 @@ public class World {
 			throw new SettingsError("Too small value (" + conCellSizeMult +
 					") for " + SETTINGS_NS + "." + CELL_SIZE_MULT_S);
 		}
+
+		this.parallelUpdates = DEF_PARALLEL_UPDATES;
+		if (s.contains(PARALLEL_UPDATES_S)) {
+			this.parallelUpdates = s.getBoolean(PARALLEL_UPDATES_S);
+		}
+		this.pairSweep = DEF_PAIR_SWEEP;
+		if (s.contains(PAIR_SWEEP_S)) {
+			this.pairSweep = s.getBoolean(PAIR_SWEEP_S);
+		}
+		this.parallelMovement = DEF_PARALLEL_MOVEMENT;
+		if (s.contains(PARALLEL_MOVEMENT_S)) {
+			this.parallelMovement = s.getBoolean(PARALLEL_MOVEMENT_S);
+		}
+		if (this.parallelUpdates || this.parallelMovement) {
+			int nrofThreads = Math.max(1, 
+					Runtime.getRuntime().availableProcessors() / 
+					DTNSim.getConcurrentRuns());
+			if (s.contains(NROF_THREADS_S)) {
+				nrofThreads = s.getInt(NROF_THREADS_S);
+			}
+			if (nrofThreads < 1) {
+				throw new SettingsError("Too small value (" + nrofThreads +
+						") for " + SETTINGS_NS + "." + NROF_THREADS_S);
+			}
+			this.pool = new ForkJoinPool(nrofThreads);
+		}
+		else { // null pointer means "update and move serially"
+			this.pool = null;
+		}
+		if (this.parallelUpdates || this.parallelMovement || this.pairSweep) {
+			this.activeHosts = new ArrayList<DTNHost>(this.hosts.size());
+		}
+		boolean continuousContacts = DEF_CONTINUOUS_CONTACTS;
+		if (s.contains(CONTINUOUS_CONTACTS_S)) {
+			continuousContacts = s.getBoolean(CONTINUOUS_CONTACTS_S);
+		}
+		if (continuousContacts && this.simulateConnections) {
+			this.contactDetector = new ContactDetector(this.hosts);
+			this.eventQueues = new ArrayList<EventQueue>(this.eventQueues);
+			this.eventQueues.add(this.contactDetector);
+		}
+		else { // null pointer means "connections are checked on updates"
+			this.contactDetector = null;
+		}
+		if (this.pairSweep) {
+			this.optimizers = new ArrayList<ConnectivityOptimizer>();
+			for (DTNHost host : this.hosts) {
+				for (NetworkInterface ni : host.getInterfaces()) {
+					if (!this.optimizers.contains(ni.getOptimizer())) {
+						this.optimizers.add(ni.getOptimizer());
+					}
+				}
+			}
+		}
+		if (this.parallelMovement) {
+			for (DTNHost host : this.hosts) {
+				if (host.canMoveConcurrently()) {
+					host.useOwnMovementRng();
+				}
+			}
+		}
 	}
 
 	/**
@@ -169,6 +373,15 @@ public class World {
 	public void update () {
 		double runUntil = SimClock.getTime() + this.updateInterval;
 
+		if (this.contactDetector != null) {
+			/* the hosts are moved first so that the connection events of 
+			 * the whole interval are known before any events are processed */
+			this.contactDetector.startInterval();
+			moveHosts(this.updateInterval);
+			this.contactDetector.findContacts(SimClock.getTime(), 
+					this.updateInterval);
+		}
+
 		setNextEventQueue();
 
 		/* process all events that are due until next interval update */
@@ -176,14 +389,16 @@ public class World {
 			simClock.setTime(this.nextQueueEventTime);
 			ExternalEvent ee = this.nextEventQueue.nextEvent();
 			ee.processEvent(this);
-			updateHosts(); // update all hosts after every event
+			updateHosts(false); // update all hosts after every event
 			setNextEventQueue();
 		}
 
-		moveHosts(this.updateInterval);
+		if (this.contactDetector == null) {
+			moveHosts(this.updateInterval);
+		}
 		simClock.setTime(runUntil);
 
-		updateHosts();
+		updateHosts(true);
 
 		/* inform all update listeners */
 		for (UpdateListener ul : this.updateListeners) {
@@ -194,29 +409,74 @@ public class World {
 	/**
 	 * Updates all hosts (calls update for every one of them). If update
 	 * order randomizing is on (updateOrder array is defined), the calls
-	 * are made in random order.
+	 * are made in random order. If parallel updates or pair sweep are on,
+	 * the interfaces within range are looked up for all hosts before the 
+	 * calls.
+	 * @param intervalEnd Is this the update at the end of the update 
+	 * interval (or an update after an event)
 	 */
-	private void updateHosts() {
+	private void updateHosts(boolean intervalEnd) {
+		List<DTNHost> order;
+		/* in continuous contacts mode the connections are set up and torn 
+		 * down by the connection events and the transfers are updated once
+		 * per update interval */
+		boolean updateInterfaces = simulateConnections && 
+			this.contactDetector == null;
+		boolean updateConnections = updateInterfaces || 
+			(simulateConnections && intervalEnd);
+
 		if (this.updateOrder == null) { // randomizing is off
-			for (int i=0, n = hosts.size();i < n; i++) {
-				if (this.isCancelled) {
-					break;
-				}
-				hosts.get(i).update(simulateConnections);
-			}
+			order = this.hosts;
 		}
 		else { // update order randomizing is on
 			assert this.updateOrder.size() == this.hosts.size() : 
 				"Nrof hosts has changed unexpectedly";
 			Random rng = new Random(SimClock.getIntTime());
 			Collections.shuffle(this.updateOrder, rng); 
-			for (int i=0, n = hosts.size();i < n; i++) {
-				if (this.isCancelled) {
-					break;
-				}
-				this.updateOrder.get(i).update(simulateConnections);
-			}			
+			order = this.updateOrder;
+		}
+
+		if ((this.parallelUpdates || this.pairSweep) && updateInterfaces) {
+			findNearInterfaces(order);
+		}
+
+		for (int i=0, n = hosts.size();i < n; i++) {
+			if (this.isCancelled) {
+				break;
+			}
+			order.get(i).update(updateConnections, updateInterfaces);
+		}
+	}
+
+	/**
+	 * Updates the connectivity optimizer locations of the active hosts' 
+	 * interfaces (in the update order) and then lets all the interfaces look
+	 * up the interfaces within their range in parallel, or lets the 
+	 * connectivity optimizers look them up for all interfaces at once (in
+	 * pair sweep mode). The found interfaces are used when the hosts are
+	 * updated.
+	 * @param order The hosts in the update order
+	 */
+	private void findNearInterfaces(List<DTNHost> order) {
+		this.activeHosts.clear();
+		for (int i=0, n = order.size(); i < n; i++) {
+			DTNHost host = order.get(i);
+			if (host.isActive()) {
+				host.updateInterfaceLocations();
+				this.activeHosts.add(host);
+			}
+		}
+
+		if (this.pairSweep) {
+			ForkJoinPool sweepPool = this.parallelUpdates ? this.pool : null;
+			for (int i=0, n = this.optimizers.size(); i < n; i++) {
+				this.optimizers.get(i).findNearInterfaces(sweepPool);
+			}
+			return;
 		}
+
+		pool.invoke(new NearInterfacesTask(this.activeHosts, 0, 
+				this.activeHosts.size()));
 	}
 
 	/**
@@ -224,12 +484,43 @@ public class World {
 	 * @param timeIncrement The time how long all nodes should move
 	 */
 	private void moveHosts(double timeIncrement) {
+		if (this.parallelMovement) {
+			moveHostsInParallel(timeIncrement);
+			return;
+		}
+
 		for (int i=0,n = hosts.size(); i<n; i++) {
 			DTNHost host = hosts.get(i);
 			host.move(timeIncrement);			
 		}		
 	}
 
+	/**
+	 * Moves all hosts in the world for a given amount of time so that the
+	 * hosts that can be moved concurrently are moved in parallel. The 
+	 * activeness of the hosts is checked serially first because the 
+	 * activeness handlers can be shared between hosts.
+	 * @param timeIncrement The time how long all nodes should move
+	 */
+	private void moveHostsInParallel(double timeIncrement) {
+		this.activeHosts.clear();
+		for (int i=0,n = hosts.size(); i<n; i++) {
+			DTNHost host = hosts.get(i);
+			if (!host.isActive()) {
+				continue;
+			}
+			if (host.canMoveConcurrently()) {
+				this.activeHosts.add(host);
+			}
+			else {
+				host.move(timeIncrement);
+			}
+		}
+
+		pool.invoke(new MoveTask(this.activeHosts, 0, 
+				this.activeHosts.size(), timeIncrement));
+	}
+
 	/**
 	 * Asynchronously cancels the currently running simulation
 	 */
@@ -237,6 +528,18 @@ public class World {
 		this.isCancelled = true;
 	}
 
+	/**
+	 * Releases the resources of the world when the simulation has ended 
+	 * (stops the worker threads of the parallel updates and movement).
+	 * The world must not be updated anymore after this.
+	 */
+	public void done() {
+		if (this.pool != null) {
+			this.pool.shutdown();
+			this.pool = null;
+		}
+	}
+
 	/**
 	 * Returns the hosts in a list
 	 * @return the hosts in a list
@@ -287,4 +590,99 @@ public class World {
 	public void scheduleUpdate(double simTime) {
 		scheduledUpdates.addUpdate(simTime);
 	}
+
+	/**
+	 * Task that handles a range of hosts. The range is split in halves until
+	 * it is small enough to be handled by one thread.
+	 */
+	private static abstract class HostsTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		protected List<DTNHost> hosts;
+		private int start;
+		private int end;
+
+		/**
+		 * Constructor.
+		 * @param hosts The hosts
+		 * @param start Index of the first host to handle
+		 * @param end Index of the host after the last host to handle
+		 */
+		public HostsTask(List<DTNHost> hosts, int start, int end) {
+			this.hosts = hosts;
+			this.start = start;
+			this.end = end;
+		}
+
+		/**
+		 * Handles a single host
+		 * @param host The host to handle
+		 */
+		protected abstract void handle(DTNHost host);
+
+		/**
+		 * Creates a similar task for a part of the range
+		 * @param start Index of the first host to handle
+		 * @param end Index of the host after the last host to handle
+		 * @return The new task
+		 */
+		protected abstract HostsTask subTask(int start, int end);
+
+		@Override
+		protected void compute() {
+			if (end - start <= PARALLEL_BATCH_SIZE) {
+				for (int i = start; i < end; i++) {
+					handle(hosts.get(i));
+				}
+				return;
+			}
+
+			int middle = (start + end) / 2;
+			invokeAll(subTask(start, middle), subTask(middle, end));
+		}
+	}
+
+	/**
+	 * Task that looks up the interfaces within range for a range of hosts.
+	 */
+	private static class NearInterfacesTask extends HostsTask {
+		private static final long serialVersionUID = 1L;
+
+		public NearInterfacesTask(List<DTNHost> hosts, int start, int end) {
+			super(hosts, start, end);
+		}
+
+		@Override
+		protected void handle(DTNHost host) {
+			host.findNearInterfaces();
+		}
+
+		@Override
+		protected HostsTask subTask(int start, int end) {
+			return new NearInterfacesTask(hosts, start, end);
+		}
+	}
+
+	/**
+	 * Task that moves a range of hosts.
+	 */
+	private static class MoveTask extends HostsTask {
+		private static final long serialVersionUID = 1L;
+		private double timeIncrement;
+
+		public MoveTask(List<DTNHost> hosts, int start, int end,
+				double timeIncrement) {
+			super(hosts, start, end);
+			this.timeIncrement = timeIncrement;
+		}
+
+		@Override
+		protected void handle(DTNHost host) {
+			host.move(timeIncrement);
+		}
+
+		@Override
+		protected HostsTask subTask(int start, int end) {
+			return new MoveTask(hosts, start, end, timeIncrement);
+		}
+	}
 }
@@ -7,6 +7,9 @@ package interfaces;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import movement.MovementModel;
 
@@ -33,16 +36,29 @@ import core.Settings;
  * connectivity. 
  * </P>
  * <P>
+ * All the interfaces can also be checked at once by sweeping the grid cell by
+ * cell (see {@link #findNearInterfaces(ForkJoinPool)}). Then only half of the
+ * neighboring cells are checked for every cell so that every pair of 
+ * interfaces is checked only once, and the connections that went out of
+ * range are torn down by the sweep.
+ * </P>
+ * <P>
  * <strong>Note:</strong> this class does NOT support negative
  * coordinates. Also, it makes sense to normalize the coordinates to start
  * from zero to conserve memory. 
  */
 public class ConnectivityGrid extends ConnectivityOptimizer {
+	/** how many grid rows are handled in one parallel task at most */
+	private static final int PARALLEL_BATCH_ROWS = 4;
+
 	private GridCell[][] cells;
 	private HashMap<NetworkInterface,GridCell> ginterfaces;
 	private int cellSize;
 	private int rows;
 	private int cols;
+	/** in-range interface pairs found from each row of the grid by the 
+	 * latest sweep (two consecutive interfaces per pair) */
+	private ArrayList<ArrayList<NetworkInterface>> rowPairs;
 	private static int worldSizeX;
 	private static int worldSizeY;
 
@@ -148,33 +164,6 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 		}
 	}
 
-	/**
-	 * Finds all neighboring cells and the cell itself based on the coordinates
-	 * @param c The coordinates
-	 * @return Array of neighboring cells 
-	 */
-	private GridCell[] getNeighborCellsByCoord(Coord c) {
-		// +1 due empty cells on both sides of the matrix
-		int row = (int)(c.getY()/cellSize) + 1;
-		int col = (int)(c.getX()/cellSize) + 1;
-		return getNeighborCells(row,col);
-	}
-
-	/**
-	 * Returns an array of Cells that contains the neighbors of a certain
-	 * cell and the cell itself.
-	 * @param row Row index of the cell
-	 * @param col Column index of the cell
-	 * @return Array of neighboring Cells
-	 */
-	private GridCell[] getNeighborCells(int row, int col) {
-		return new GridCell[] {
-			cells[row-1][col-1],cells[row-1][col],cells[row-1][col+1],//1st row
-			cells[row][col-1],cells[row][col],cells[row][col+1],//2nd row
-			cells[row+1][col-1],cells[row+1][col],cells[row+1][col+1]//3rd row
-		};
-	}
-
 	/**
 	 * Get the cell having the specific coordinates
 	 * @param c Coordinates
@@ -205,19 +194,219 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 	public Collection<NetworkInterface> getNearInterfaces(
 			NetworkInterface netinterf) {
 		ArrayList<NetworkInterface> ni = new ArrayList<NetworkInterface>();
-		ni.clear();
+		getNearInterfaces(netinterf, ni);
+		return ni;
+	}
+
+	/**
+	 * Stores all interfaces using the same technology and channel that are
+	 * in neighboring cells (and the interface's own cell) to the given list.
+	 * The cells are visited in the same order as in 
+	 * {@link #getNearInterfaces(NetworkInterface)} and nothing is allocated
+	 * if the list is large enough.
+	 */
+	@Override
+	public void getNearInterfaces(NetworkInterface netinterf, 
+			List<NetworkInterface> near) {
+		near.clear();
 
 		GridCell loc = (GridCell)ginterfaces.get(netinterf);
-		if (loc != null) {	
-			GridCell[] neighbors = 
-				getNeighborCellsByCoord(netinterf.getLocation());
-			for (int i=0; i < neighbors.length; i++) {
-				ni.addAll(neighbors[i].getInterfaces());
+		if (loc == null) {
+			return;
+		}
+		
+		Coord c = netinterf.getLocation();
+		// +1 due empty cells on both sides of the matrix
+		int row = (int)(c.getY()/cellSize) + 1;
+		int col = (int)(c.getX()/cellSize) + 1;
+		for (int i = row-1; i <= row+1; i++) {
+			for (int j = col-1; j <= col+1; j++) {
+				ArrayList<NetworkInterface> cellInterfaces = 
+					cells[i][j].getInterfaces();
+				for (int k = 0, n = cellInterfaces.size(); k < n; k++) {
+					near.add(cellInterfaces.get(k));
+				}
 			}
 		}
-		return ni;
 	}
 
+	/**
+	 * Returns a version for the near interfaces of an interface. The version
+	 * consists of the index of the interface's cell and the sum of the 
+	 * neighboring cells' versions that are increased every time an 
+	 * interface enters or leaves the cell.
+	 */
+	@Override
+	public long getNearInterfacesVersion(NetworkInterface netinterf) {
+		Coord c = netinterf.getLocation();
+		// +1 due empty cells on both sides of the matrix
+		int row = (int)(c.getY()/cellSize) + 1;
+		int col = (int)(c.getX()/cellSize) + 1;
+		int versions = 0;
+		for (int i = row-1; i <= row+1; i++) {
+			for (int j = col-1; j <= col+1; j++) {
+				versions += cells[i][j].version;
+			}
+		}
+		long cellIndex = (long)row * (cols + 2) + col;
+		return (cellIndex << 32) | (versions & 0xffffffffL);
+	}
+
+	/**
+	 * Looks up the interfaces within range for all the interfaces in the
+	 * grid. The grid is swept cell by cell (row by row) and the interfaces of
+	 * a cell are checked against the interfaces later in the same cell and
+	 * in the east, south-west, south and south-east cells, i.e., every pair 
+	 * of interfaces in neighboring cells is checked once. The interfaces 
+	 * within range are stored to the interfaces in the same order as 
+	 * {@link #getNearInterfaces(NetworkInterface, List)} would return them.
+	 * If a thread pool is given, the rows are checked in parallel, but the
+	 * results are stored in the row order. Finally, the connections of the
+	 * active hosts' interfaces whose other end is not within range anymore
+	 * are torn down in the grid's order (cell by cell) so the interfaces
+	 * don't need to check the ranges of their connections again.
+	 */
+	@Override
+	public void findNearInterfaces(ForkJoinPool pool) {
+		if (rowPairs == null) {
+			rowPairs = new ArrayList<ArrayList<NetworkInterface>>(rows + 2);
+			for (int i = 0; i < rows + 2; i++) {
+				rowPairs.add(new ArrayList<NetworkInterface>());
+			}
+		}
+
+		for (int i = 1; i <= rows; i++) {
+			for (int j = 1; j <= cols; j++) {
+				ArrayList<NetworkInterface> cellInterfaces = 
+					cells[i][j].getInterfaces();
+				for (int k = 0, n = cellInterfaces.size(); k < n; k++) {
+					cellInterfaces.get(k).clearNearInterfaces();
+				}
+			}
+		}
+
+		if (pool == null) {
+			for (int i = 1; i <= rows; i++) {
+				findPairs(i);
+			}
+		}
+		else {
+			pool.invoke(new RowsTask(1, rows + 1));
+		}
+
+		/* the interfaces of earlier cells (and earlier in the same cell) 
+		 * get added first, which keeps the order of the near interfaces */
+		for (int i = 1; i <= rows; i++) {
+			ArrayList<NetworkInterface> pairs = rowPairs.get(i);
+			for (int k = 0, n = pairs.size(); k < n; k += 2) {
+				NetworkInterface first = pairs.get(k);
+				NetworkInterface second = pairs.get(k + 1);
+				first.addNearInterface(second);
+				second.addNearInterface(first);
+			}
+		}
+
+		for (int i = 1; i <= rows; i++) {
+			for (int j = 1; j <= cols; j++) {
+				ArrayList<NetworkInterface> cellInterfaces = 
+					cells[i][j].getInterfaces();
+				for (int k = 0, n = cellInterfaces.size(); k < n; k++) {
+					NetworkInterface ni = cellInterfaces.get(k);
+					if (ni.getHost().isActive()) {
+						ni.disconnectNotNear();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the in-range pairs of interfaces where the first interface is
+	 * on the given row of the grid. The pairs are stored to the row's list
+	 * of pairs.
+	 * @param row The row
+	 */
+	private void findPairs(int row) {
+		ArrayList<NetworkInterface> pairs = rowPairs.get(row);
+		pairs.clear();
+
+		for (int col = 1; col <= cols; col++) {
+			ArrayList<NetworkInterface> cellInterfaces = 
+				cells[row][col].getInterfaces();
+			for (int k = 0, n = cellInterfaces.size(); k < n; k++) {
+				NetworkInterface ni = cellInterfaces.get(k);
+				for (int m = k + 1; m < n; m++) {
+					checkPair(ni, cellInterfaces.get(m), pairs);
+				}
+				checkPairs(ni, cells[row][col+1], pairs);
+				checkPairs(ni, cells[row+1][col-1], pairs);
+				checkPairs(ni, cells[row+1][col], pairs);
+				checkPairs(ni, cells[row+1][col+1], pairs);
+			}
+		}
+	}
+
+	/**
+	 * Checks an interface against all the interfaces in a cell
+	 * @param ni The interface
+	 * @param cell The cell
+	 * @param pairs The list where the pairs within range are added to
+	 */
+	private void checkPairs(NetworkInterface ni, GridCell cell,
+			ArrayList<NetworkInterface> pairs) {
+		ArrayList<NetworkInterface> cellInterfaces = cell.getInterfaces();
+		for (int k = 0, n = cellInterfaces.size(); k < n; k++) {
+			checkPair(ni, cellInterfaces.get(k), pairs);
+		}
+	}
+
+	/**
+	 * Adds the pair of interfaces to the list if they are within range 
+	 * @param first The first interface
+	 * @param second The second interface
+	 * @param pairs The list where the pair is added to
+	 */
+	private void checkPair(NetworkInterface first, NetworkInterface second,
+			ArrayList<NetworkInterface> pairs) {
+		if (first.isWithinRange(second)) {
+			pairs.add(first);
+			pairs.add(second);
+		}
+	}
+
+	/**
+	 * Task that finds the in-range pairs for a range of grid rows. The range
+	 * is split in halves until it is small enough to be handled by one 
+	 * thread.
+	 */
+	private class RowsTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private int start;
+		private int end;
+
+		/**
+		 * Constructor.
+		 * @param start Index of the first row to handle
+		 * @param end Index of the row after the last row to handle
+		 */
+		public RowsTask(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start <= PARALLEL_BATCH_ROWS) {
+				for (int i = start; i < end; i++) {
+					findPairs(i);
+				}
+				return;
+			}
+
+			int middle = (start + end) / 2;
+			invokeAll(new RowsTask(start, middle), new RowsTask(middle, end));
+		}
+	}
 
 	/**
 	 * Returns a string representation of the ConnectivityCells object
@@ -236,6 +425,8 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 		// how large array is initially chosen
 		private static final int EXPECTED_INTERFACE_COUNT = 5;
 		private ArrayList<NetworkInterface> interfaces;
+		/** increased every time the interfaces of the cell change */
+		private int version;
 
 		private GridCell() {
 			this.interfaces = new ArrayList<NetworkInterface>(
@@ -256,6 +447,7 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 		 */
 		public void addInterface(NetworkInterface ni) {
 			this.interfaces.add(ni);
+			this.version++;
 		}
 
 		/**
@@ -264,6 +456,7 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 		 */
 		public void removeInterface(NetworkInterface ni) {
 			this.interfaces.remove(ni);
+			this.version++;
 		}
 
 		/**
@@ -274,6 +467,7 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 		public void moveInterface(NetworkInterface ni, GridCell to) {
 			to.addInterface(ni);
 			boolean removeOk = this.interfaces.remove(ni); 
+			this.version++;
 			assert removeOk : "interface " + ni + 
 				" not found from cell with " + interfaces.toString();
 		}
@@ -5,6 +5,8 @@
 package interfaces;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import core.NetworkInterface;
 
@@ -13,6 +15,9 @@ import core.NetworkInterface;
  * with network interfaces of a specific range
  */
 abstract public class ConnectivityOptimizer {
+	/** version value telling that the version of the near interfaces is 
+	 * not known ({@value}) */
+	public static final long UNKNOWN_VERSION = -1;
 
 	/**
 	 * Adds a network interface to the optimizer (unless it is already present)
@@ -40,6 +45,60 @@ abstract public class ConnectivityOptimizer {
 	abstract public Collection<NetworkInterface> getNearInterfaces(
 			NetworkInterface ni);
 
+	/**
+	 * Finds all network interfaces that might be located so that they can be
+	 * connected with the network interface and stores them to the given list.
+	 * Optimizers should override this so that nothing is allocated when the
+	 * list is large enough (this implementation uses 
+	 * {@link #getNearInterfaces(NetworkInterface)}).
+	 * 
+	 * @param ni network interface that needs to be connected
+	 * @param near The list where the interfaces are stored. Any old content
+	 * of the list is removed first.
+	 */
+	public void getNearInterfaces(NetworkInterface ni, 
+			List<NetworkInterface> near) {
+		near.clear();
+		near.addAll(getNearInterfaces(ni));
+	}
+
+	/**
+	 * Returns a version number for the result of 
+	 * {@link #getNearInterfaces(NetworkInterface, List)}. If two calls of this
+	 * method return the same version (and nothing else than locations has
+	 * changed), also the near interfaces are the same, so the ones found
+	 * earlier can be used again. Optimizers that can't tell this should
+	 * return {@link #UNKNOWN_VERSION} (like this implementation does).
+	 * 
+	 * @param ni network interface that needs to be connected
+	 * @return The version of the near interfaces or {@link #UNKNOWN_VERSION}
+	 */
+	public long getNearInterfacesVersion(NetworkInterface ni) {
+		return UNKNOWN_VERSION;
+	}
+
+	/**
+	 * Looks up the interfaces within range for all the interfaces of this
+	 * optimizer at once. The found interfaces are stored to the interfaces
+	 * (see {@link NetworkInterface#clearNearInterfaces()}) and used at
+	 * their next update. The locations of the interfaces must be up to date
+	 * and they must not change meanwhile. Optimizers should override this so
+	 * that every pair of interfaces is checked only once (this 
+	 * implementation makes every interface look up its neighbors using
+	 * {@link NetworkInterface#findNearInterfaces()}). Optimizers may also 
+	 * tear down the connections that are out of range (see 
+	 * {@link NetworkInterface#disconnectNotNear()}).
+	 * 
+	 * @param pool Thread pool to use for the look up or null if the look up
+	 * should be done in the calling thread. The results must not depend on 
+	 * this.
+	 */
+	public void findNearInterfaces(ForkJoinPool pool) {
+		for (NetworkInterface ni : getAllInterfaces()) {
+			ni.findNearInterfaces();
+		}
+	}
+
 	/**
 	 * Finds all other interfaces that are registered to the
 	 * ConnectivityOptimizer
@@ -0,0 +1,250 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package interfaces;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import movement.MovementModel;
+import core.Coord;
+import core.NetworkInterface;
+import core.Settings;
+
+/**
+ * Micro benchmark that compares the {@link ConnectivityGrid} and the 
+ * {@link HashedConnectivityGrid}. For every scenario, interfaces are placed
+ * either uniformly over the world or into circular clusters (like with
+ * {@link movement.ClusterMovement}) and moved a random step on every tick.
+ * The memory used by the optimizer and the average time of one tick 
+ * (updating all locations and looking up the near interfaces of all 
+ * interfaces) are measured. The number of near interfaces found is printed
+ * as a checksum that should be the same for both optimizers. Usage:
+ * <PRE>java interfaces.ConnectivityOptimizerBenchmark</PRE>
+ */
+public class ConnectivityOptimizerBenchmark {
+	/** transmit range of the interfaces (and the cell size) */
+	private static final double RANGE = 10;
+	/** maximum length of one step of an interface per tick */
+	private static final double MAX_STEP = 5;
+	/** radius of the clusters in clustered scenarios */
+	private static final double CLUSTER_RANGE = 500;
+	/** number of clusters in clustered scenarios */
+	private static final int NROF_CLUSTERS = 5;
+	/** dense grids with more cells than this are not tested */
+	private static final long MAX_DENSE_CELLS = 20000000;
+	/** number of warm up ticks before measuring */
+	private static final int WARMUP_TICKS = 20;
+	/** number of measured ticks */
+	private static final int TICKS = 50;
+	/** seed of the random number generator */
+	private static final long SEED = 42;
+
+	/** world width, world height, number of interfaces, clustered (1/0) */
+	private static final int[][] SCENARIOS = {
+		{4500, 3400, 1000, 0},
+		{4500, 3400, 1000, 1},
+		{10000, 10000, 10000, 0},
+		{10000, 10000, 10000, 1},
+		{100000, 100000, 10000, 1},
+	};
+
+	/**
+	 * Runs the benchmark
+	 * @param args not used
+	 */
+	public static void main(String[] args) throws IOException {
+		System.out.println("# world nodes distribution optimizer " +
+				"memory_kB us_per_tick checksum");
+		int key = 0;
+		for (int[] s : SCENARIOS) {
+			initSettings(s[0], s[1]);
+			boolean clustered = s[3] != 0;
+			String name = s[0] + "x" + s[1] + " " + s[2] + " " + 
+				(clustered ? "clustered" : "uniform");
+
+			long cells = (long)(s[0] / RANGE + 3) * (long)(s[1] / RANGE + 3);
+			if (cells <= MAX_DENSE_CELLS) {
+				run(name, s, clustered, true, key++);
+			}
+			else {
+				System.out.println(name + " ConnectivityGrid n/a (" + cells + 
+						" cells)");
+			}
+			run(name, s, clustered, false, key++);
+		}
+	}
+
+	/**
+	 * Sets the world size setting that the dense grid reads
+	 */
+	private static void initSettings(int width, int height) 
+			throws IOException {
+		File f = File.createTempFile("optbench", ".txt");
+		f.deleteOnExit();
+		FileWriter w = new FileWriter(f);
+		w.write(MovementModel.MOVEMENT_MODEL_NS + "." + 
+				MovementModel.WORLD_SIZE + " = " + width + "," + height + "\n");
+		w.close();
+		Settings.init(f.getPath());
+		ConnectivityGrid.reset();
+		HashedConnectivityGrid.reset();
+	}
+
+	/**
+	 * Runs one scenario with one optimizer
+	 * @param name Name of the scenario
+	 * @param s The scenario
+	 * @param clustered Should the interfaces be clustered
+	 * @param dense Should the dense grid be used
+	 * @param key Key of the optimizer
+	 */
+	private static void run(String name, int[] s, boolean clustered,
+			boolean dense, int key) {
+		Random rng = new Random(SEED);
+		List<BenchInterface> interfaces = createInterfaces(s[0], s[1], s[2], 
+				clustered, rng);
+
+		long memBefore = usedMemory();
+		ConnectivityOptimizer optimizer;
+		if (dense) {
+			optimizer = ConnectivityGrid.ConnectivityGridFactory(key, RANGE);
+		}
+		else {
+			optimizer = HashedConnectivityGrid.HashedConnectivityGridFactory(
+					key, RANGE);
+		}
+		for (BenchInterface ni : interfaces) {
+			optimizer.addInterface(ni);
+		}
+		long memory = usedMemory() - memBefore;
+
+		List<NetworkInterface> near = new ArrayList<NetworkInterface>();
+		long checksum = 0;
+		for (int i = 0; i < WARMUP_TICKS; i++) {
+			checksum += tick(optimizer, interfaces, near, s, rng);
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < TICKS; i++) {
+			checksum += tick(optimizer, interfaces, near, s, rng);
+		}
+		double usPerTick = (System.nanoTime() - start) / 1000.0 / TICKS;
+
+		System.out.printf("%s %s %d %.1f %d%n", name, 
+				optimizer.getClass().getSimpleName(), memory / 1024, 
+				usPerTick, checksum);
+	}
+
+	/**
+	 * Moves all the interfaces, updates their locations and looks up their
+	 * near interfaces
+	 * @return Number of near interfaces found
+	 */
+	private static long tick(ConnectivityOptimizer optimizer, 
+			List<BenchInterface> interfaces, List<NetworkInterface> near,
+			int[] s, Random rng) {
+		for (int i = 0, n = interfaces.size(); i < n; i++) {
+			interfaces.get(i).step(rng, s[0], s[1]);
+		}
+		for (int i = 0, n = interfaces.size(); i < n; i++) {
+			optimizer.updateLocation(interfaces.get(i));
+		}
+		long found = 0;
+		for (int i = 0, n = interfaces.size(); i < n; i++) {
+			optimizer.getNearInterfaces(interfaces.get(i), near);
+			found += near.size();
+		}
+		return found;
+	}
+
+	/**
+	 * Creates the interfaces to uniformly random or clustered locations
+	 */
+	private static List<BenchInterface> createInterfaces(int width, 
+			int height, int nrof, boolean clustered, Random rng) {
+		Coord[] centers = new Coord[NROF_CLUSTERS];
+		for (int i = 0; i < NROF_CLUSTERS; i++) {
+			centers[i] = new Coord(CLUSTER_RANGE + rng.nextDouble() * 
+					(width - 2 * CLUSTER_RANGE), CLUSTER_RANGE + 
+					rng.nextDouble() * (height - 2 * CLUSTER_RANGE));
+		}
+
+		List<BenchInterface> interfaces = new ArrayList<BenchInterface>(nrof);
+		for (int i = 0; i < nrof; i++) {
+			double x;
+			double y;
+			if (clustered) { // same as in ClusterMovement
+				Coord center = centers[i % NROF_CLUSTERS];
+				do {
+					x = (rng.nextDouble()*2 - 1) * CLUSTER_RANGE;
+					y = (rng.nextDouble()*2 - 1) * CLUSTER_RANGE;
+				} while (x*x + y*y > CLUSTER_RANGE*CLUSTER_RANGE);
+				x += center.getX();
+				y += center.getY();
+			}
+			else {
+				x = rng.nextDouble() * width;
+				y = rng.nextDouble() * height;
+			}
+			interfaces.add(new BenchInterface(new Coord(x, y)));
+		}
+		return interfaces;
+	}
+
+	/**
+	 * Returns the amount of used heap memory after garbage collection
+	 */
+	private static long usedMemory() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	/**
+	 * Network interface that has a location of its own (no host)
+	 */
+	private static class BenchInterface extends NetworkInterface {
+		private Coord location;
+
+		public BenchInterface(Coord location) {
+			this.location = location;
+			this.transmitRange = RANGE;
+		}
+
+		/**
+		 * Moves the interface a random step (staying inside the world)
+		 */
+		public void step(Random rng, int width, int height) {
+			double x = location.getX() + (rng.nextDouble()*2 - 1) * MAX_STEP;
+			double y = location.getY() + (rng.nextDouble()*2 - 1) * MAX_STEP;
+			location.setLocation(Math.min(Math.max(x, 0), width), 
+					Math.min(Math.max(y, 0), height));
+		}
+
+		@Override
+		public Coord getLocation() {
+			return location;
+		}
+
+		@Override
+		public NetworkInterface replicate() {
+			return new BenchInterface(location.clone());
+		}
+
+		@Override
+		public void connect(NetworkInterface anotherInterface) {}
+
+		@Override
+		public void update() {}
+
+		@Override
+		public void createConnection(NetworkInterface anotherInterface) {}
+	}
+}
@@ -0,0 +1,363 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package interfaces;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+import core.Coord;
+import core.DTNSim;
+import core.NetworkInterface;
+
+/**
+ * <P>
+ * Sparse version of the {@link ConnectivityGrid}. Only the cells that 
+ * contain interfaces exist and they are stored to a hash table using the
+ * cell's row and column (packed to a long value) as the key. The memory
+ * usage depends on the number of interfaces instead of the size of the 
+ * world, so this works also with huge worlds where the nodes are located on
+ * a small part of the area, and the coordinates can be negative.</P>
+ * <P>
+ * The neighboring cells are visited in the same order as in the 
+ * {@link ConnectivityGrid}, so for worlds with non-negative coordinates the
+ * simulation results are identical with the ones using the dense grid.</P>
+ */
+public class HashedConnectivityGrid extends ConnectivityOptimizer {
+	/** initial size of the cell hash table (must be a power of two) */
+	private static final int INITIAL_CAPACITY = 64;
+	/** the hash table is grown when it's fuller than this */
+	private static final double MAX_LOAD = 0.5;
+
+	private HashMap<NetworkInterface,Cell> ginterfaces;
+	private int cellSize;
+	/** the cells in an open addressing (linear probing) hash table */
+	private Cell[] table;
+	/** number of cells in the table */
+	private int nrofCells;
+	/** empty cells that can be reused */
+	private ArrayList<Cell> spareCells;
+
+	static HashMap<Integer,HashedConnectivityGrid> gridobjects;
+
+	static {
+		DTNSim.registerForReset(
+				HashedConnectivityGrid.class.getCanonicalName());
+		reset();
+	}
+	
+	public static void reset() {
+		gridobjects = new HashMap<Integer,HashedConnectivityGrid>();
+	}
+
+	/**
+	 * Creates a new hashed connectivity grid
+	 *
+	 * @param cellSize Cell's edge's length (must be larger than the largest
+	 * 	radio coverage's diameter)
+	 */
+	private HashedConnectivityGrid(int cellSize) {
+		this.cellSize = cellSize;
+		this.table = new Cell[INITIAL_CAPACITY];
+		this.nrofCells = 0;
+		this.spareCells = new ArrayList<Cell>();
+		this.ginterfaces = new HashMap<NetworkInterface,Cell>();
+	}
+
+	/**
+	 * Returns a hashed connectivity grid object based on a hash value
+	 * @param key A hash value that separates different interfaces from each 
+	 * other
+	 * @param cellSize  Cell's edge's length (must be larger than the largest
+	 * 	radio coverage's diameter)
+	 * @return The connectivity grid object for a specific interface
+	 */
+	public static HashedConnectivityGrid HashedConnectivityGridFactory(
+			int key, double cellSize) {
+		HashedConnectivityGrid grid = gridobjects.get((Integer)key);
+		if (grid == null) {
+			grid = new HashedConnectivityGrid((int)Math.ceil(cellSize));
+			gridobjects.put((Integer)key, grid);
+		}
+		return grid;
+	}
+
+	/**
+	 * Adds a network interface to the grid
+	 * @param ni The new network interface
+	 */
+	public void addInterface(NetworkInterface ni) {
+		Coord c = ni.getLocation();
+		Cell cell = getOrCreateCell(rowOf(c), colOf(c));
+		cell.interfaces.add(ni);
+		ginterfaces.put(ni, cell);
+	}
+
+	/** 
+	 * Removes a network interface from the grid 
+	 * @param ni The interface to be removed
+	 */
+	public void removeInterface(NetworkInterface ni) {
+		Cell cell = ginterfaces.remove(ni);
+		if (cell != null) {
+			cell.interfaces.remove(ni);
+			if (cell.interfaces.isEmpty()) {
+				removeCell(cell);
+			}
+		}
+	}
+
+	/**
+	 * Adds interfaces to the grid
+	 * @param interfaces Collection of interfaces to add
+	 */
+	public void addInterfaces(Collection<NetworkInterface> interfaces) {
+		for (NetworkInterface n : interfaces) {
+			addInterface(n);
+		}
+	}
+
+	/**
+	 * Checks and updates (if necessary) interface's position in the grid
+	 * @param ni The interface to update
+	 */
+	public void updateLocation(NetworkInterface ni) {
+		Cell oldCell = ginterfaces.get(ni);
+		Coord c = ni.getLocation();
+		int row = rowOf(c);
+		int col = colOf(c);
+
+		if (oldCell.row == row && oldCell.col == col) {
+			return;
+		}
+
+		Cell newCell = getOrCreateCell(row, col);
+		newCell.interfaces.add(ni);
+		boolean removeOk = oldCell.interfaces.remove(ni);
+		assert removeOk : "interface " + ni + " not found from cell " +
+			oldCell;
+		if (oldCell.interfaces.isEmpty()) {
+			removeCell(oldCell);
+		}
+		ginterfaces.put(ni, newCell);
+	}
+
+	/**
+	 * Returns all interfaces that use the same technology and channel
+	 */
+	public Collection<NetworkInterface> getAllInterfaces() {
+		return (Collection<NetworkInterface>)ginterfaces.keySet();
+	}
+
+	/**
+	 * Returns all interfaces using the same technology and channel that are in
+	 * neighboring cells
+	 */
+	public Collection<NetworkInterface> getNearInterfaces(
+			NetworkInterface netinterf) {
+		ArrayList<NetworkInterface> ni = new ArrayList<NetworkInterface>();
+		getNearInterfaces(netinterf, ni);
+		return ni;
+	}
+
+	/**
+	 * Stores all interfaces using the same technology and channel that are
+	 * in neighboring cells (and the interface's own cell) to the given list.
+	 * The cells are visited row by row like in the {@link ConnectivityGrid}.
+	 */
+	@Override
+	public void getNearInterfaces(NetworkInterface netinterf, 
+			List<NetworkInterface> near) {
+		near.clear();
+
+		if (!ginterfaces.containsKey(netinterf)) {
+			return;
+		}
+
+		Coord c = netinterf.getLocation();
+		int row = rowOf(c);
+		int col = colOf(c);
+		for (int i = row-1; i <= row+1; i++) {
+			for (int j = col-1; j <= col+1; j++) {
+				Cell cell = getCell(i, j);
+				if (cell == null) {
+					continue;
+				}
+				ArrayList<NetworkInterface> cellInterfaces = cell.interfaces;
+				for (int k = 0, n = cellInterfaces.size(); k < n; k++) {
+					near.add(cellInterfaces.get(k));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of (non-empty) cells in the grid
+	 * @return the number of cells in the grid
+	 */
+	public int getNrofCells() {
+		return this.nrofCells;
+	}
+
+	/**
+	 * Returns the row of the cell for a location
+	 */
+	private int rowOf(Coord c) {
+		return (int)Math.floor(c.getY() / cellSize);
+	}
+
+	/**
+	 * Returns the column of the cell for a location
+	 */
+	private int colOf(Coord c) {
+		return (int)Math.floor(c.getX() / cellSize);
+	}
+
+	/**
+	 * Returns the hash table index where the search for a cell starts
+	 */
+	private int indexOf(int row, int col) {
+		long key = ((long)row << 32) | (col & 0xffffffffL);
+		key *= 0x9E3779B97F4A7C15L;
+		return (int)(key ^ (key >>> 32)) & (table.length - 1);
+	}
+
+	/**
+	 * Returns the cell in the given row and column
+	 * @return The cell or null if there is no such cell
+	 */
+	private Cell getCell(int row, int col) {
+		int mask = table.length - 1;
+		for (int i = indexOf(row, col); table[i] != null; i = (i+1) & mask) {
+			Cell cell = table[i];
+			if (cell.row == row && cell.col == col) {
+				return cell;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the cell in the given row and column. Creates the cell if it 
+	 * doesn't exist yet.
+	 */
+	private Cell getOrCreateCell(int row, int col) {
+		int mask = table.length - 1;
+		int i = indexOf(row, col);
+		for (; table[i] != null; i = (i+1) & mask) {
+			Cell cell = table[i];
+			if (cell.row == row && cell.col == col) {
+				return cell;
+			}
+		}
+
+		Cell cell;
+		if (spareCells.isEmpty()) {
+			cell = new Cell();
+		}
+		else {
+			cell = spareCells.remove(spareCells.size() - 1);
+		}
+		cell.row = row;
+		cell.col = col;
+
+		if (nrofCells + 1 > table.length * MAX_LOAD) {
+			grow();
+			insert(cell);
+		}
+		else {
+			table[i] = cell;
+		}
+		nrofCells++;
+		return cell;
+	}
+
+	/**
+	 * Removes an (empty) cell from the hash table. The following cells of
+	 * the same probe sequence are shifted back so that no tombstones are
+	 * needed.
+	 */
+	private void removeCell(Cell cell) {
+		int mask = table.length - 1;
+		int i = indexOf(cell.row, cell.col);
+		while (table[i] != cell) {
+			i = (i+1) & mask;
+		}
+		table[i] = null;
+
+		for (int j = (i+1) & mask; table[j] != null; j = (j+1) & mask) {
+			Cell moved = table[j];
+			int home = indexOf(moved.row, moved.col);
+			/* the cell can fill the hole if its home index is not
+			 * (cyclically) between the hole and the cell's index */
+			if (((j - home) & mask) >= ((j - i) & mask)) {
+				table[i] = moved;
+				table[j] = null;
+				i = j;
+			}
+		}
+
+		nrofCells--;
+		spareCells.add(cell);
+	}
+
+	/**
+	 * Doubles the size of the hash table
+	 */
+	private void grow() {
+		Cell[] old = this.table;
+		this.table = new Cell[old.length * 2];
+		for (Cell cell : old) {
+			if (cell != null) {
+				insert(cell);
+			}
+		}
+	}
+
+	/**
+	 * Inserts a cell to the first free slot of its probe sequence
+	 */
+	private void insert(Cell cell) {
+		int mask = table.length - 1;
+		int i = indexOf(cell.row, cell.col);
+		while (table[i] != null) {
+			i = (i+1) & mask;
+		}
+		table[i] = cell;
+	}
+
+	/**
+	 * Returns a string representation of the grid
+	 * @return a string representation of the grid
+	 */
+	public String toString() {
+		return getClass().getSimpleName() + " with " + this.nrofCells + 
+			" cells, cell size=" + this.cellSize;
+	}
+
+	/**
+	 * A single cell in the grid. Contains the interfaces that are currently
+	 * in that part of the grid.
+	 */
+	private static class Cell {
+		// how large array is initially chosen
+		private static final int EXPECTED_INTERFACE_COUNT = 5;
+		private int row;
+		private int col;
+		private ArrayList<NetworkInterface> interfaces = 
+			new ArrayList<NetworkInterface>(EXPECTED_INTERFACE_COUNT);
+
+		/**
+		 * Returns a string representation of the cell
+		 * @return a string representation of the cell
+		 */
+		public String toString() {
+			return getClass().getSimpleName() + " (" + row + "," + col +
+				") with " + this.interfaces.size() + " interfaces :" + 
+				this.interfaces;
+		}
+	}
+}
@@ -0,0 +1,385 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package interfaces;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import movement.MovementModel;
+
+import core.Coord;
+import core.DTNHost;
+import core.DTNSim;
+import core.NetworkInterface;
+import core.Settings;
+
+/**
+ * <P>
+ * Connectivity optimizer that is shared by the network interfaces of all
+ * types. Like in the {@link ConnectivityGrid}, the world is divided to 
+ * cells, but the cells contain hosts instead of interfaces, so a host with
+ * several interfaces (e.g., Bluetooth and WLAN) is stored and moved in the
+ * grid only once. The cell size is the largest transmit range of all the 
+ * interfaces.</P>
+ * <P>
+ * When any interface of a host asks for the near interfaces, the hosts in
+ * the neighboring cells that are within the largest transmit range from 
+ * the host are looked up. They are kept for the host until some host moves
+ * (or interfaces are added or removed), so one neighbor search serves all
+ * the interfaces of a host. From those hosts, only the interfaces of the
+ * same type that are within the range of both of the interfaces are 
+ * returned, so the interfaces with shorter ranges don't have to check the
+ * hosts in the bigger cells.</P>
+ * <P>
+ * The interfaces are found in a different order than with the per-type
+ * grids, so the simulation results differ from the ones of the other 
+ * optimizers (the connections are the same).</P>
+ * <P>
+ * <strong>Note:</strong> this class does NOT support negative
+ * coordinates.
+ */
+public class HostConnectivityGrid extends ConnectivityOptimizer {
+	/** relative margin of the largest range in the host look up; the look
+	 * up only needs to find all the hosts within range, so rounding errors
+	 * are avoided by letting a bit more through */
+	private static final double RANGE_MARGIN = 1e-9;
+	/** initial size of the entry array */
+	private static final int INITIAL_ENTRIES = 256;
+
+	private HostCell[][] cells;
+	private HashMap<NetworkInterface,HostEntry> ginterfaces;
+	/** entries of the interfaces' hosts indexed by the interface address */
+	private HostEntry[] entries;
+	/** entries of the hosts (in the order the hosts were added) */
+	private LinkedHashMap<DTNHost,HostEntry> hosts;
+	private int cellSize;
+	private int rows;
+	private int cols;
+	/** largest transmit range of the interfaces */
+	private double maxRange;
+	/** squared largest transmit range (with the margin) */
+	private double maxDistanceSq;
+	/** number of times a host has moved or an interface has been added or
+	 * removed */
+	private long changes;
+	private static int worldSizeX;
+	private static int worldSizeY;
+
+	/** the grid that all the interfaces share (or null if not created) */
+	private static HostConnectivityGrid grid;
+
+	static {
+		DTNSim.registerForReset(HostConnectivityGrid.class.getCanonicalName());
+		reset();
+	}
+
+	public static void reset() {
+		grid = null;
+
+		Settings s = new Settings(MovementModel.MOVEMENT_MODEL_NS);
+		int [] worldSize = s.getCsvInts(MovementModel.WORLD_SIZE,2);
+		worldSizeX = worldSize[0];
+		worldSizeY = worldSize[1];
+	}
+
+	/**
+	 * Creates a new host connectivity grid
+	 * @param range The transmit range of the first interface
+	 */
+	private HostConnectivityGrid(double range) {
+		this.ginterfaces = new HashMap<NetworkInterface,HostEntry>();
+		this.hosts = new LinkedHashMap<DTNHost,HostEntry>();
+		this.entries = new HostEntry[INITIAL_ENTRIES];
+		setRange(range);
+	}
+
+	/**
+	 * Returns the connectivity grid that all interfaces share. If the range
+	 * of the interface is larger than the grid's cell size, the grid is
+	 * rebuilt with bigger cells.
+	 * @param range Transmit range of the interface that uses the grid
+	 * @return The shared connectivity grid object
+	 */
+	public static HostConnectivityGrid HostConnectivityGridFactory(
+			double range) {
+		if (grid == null) {
+			grid = new HostConnectivityGrid(range);
+		}
+		else if (range > grid.maxRange) {
+			grid.setRange(range);
+		}
+		return grid;
+	}
+
+	/**
+	 * Sets the largest transmit range and (re)creates the cells for it.
+	 * The hosts already in the grid are put to the new cells.
+	 * @param range The new largest transmit range
+	 */
+	private void setRange(double range) {
+		this.maxRange = range;
+		this.maxDistanceSq = range * range * (1 + RANGE_MARGIN);
+		this.cellSize = Math.max(1, (int)Math.ceil(range));
+		this.rows = worldSizeY/cellSize + 1;
+		this.cols = worldSizeX/cellSize + 1;
+		// leave empty cells on both sides to make neighbor search easier 
+		this.cells = new HostCell[rows+2][cols+2];
+		for (int i=0; i<rows+2; i++) {
+			for (int j=0; j<cols+2; j++) {
+				this.cells[i][j] = new HostCell();
+			}
+		}
+
+		for (HostEntry entry : hosts.values()) {
+			entry.cell = cellFromCoord(entry.host.getLocation());
+			entry.cell.hosts.add(entry);
+		}
+		changes++;
+	}
+
+	/**
+	 * Adds a network interface to the grid. The interface's host is added
+	 * too if none of its interfaces is in the grid yet.
+	 * @param ni The new network interface
+	 */
+	public void addInterface(NetworkInterface ni) {
+		if (ginterfaces.containsKey(ni)) {
+			return;
+		}
+
+		DTNHost host = ni.getHost();
+		HostEntry entry = hosts.get(host);
+		if (entry == null) {
+			entry = new HostEntry(host);
+			entry.x = host.getLocation().getX();
+			entry.y = host.getLocation().getY();
+			entry.cell = cellFromCoord(host.getLocation());
+			entry.cell.hosts.add(entry);
+			hosts.put(host, entry);
+		}
+		entry.interfaces.add(ni);
+		ginterfaces.put(ni, entry);
+		changes++;
+
+		int address = ni.getAddress();
+		if (address >= entries.length) {
+			entries = Arrays.copyOf(entries, 
+					Math.max(entries.length * 2, address + 1));
+		}
+		entries[address] = entry;
+	}
+
+	/** 
+	 * Removes a network interface from the grid. The interface's host is 
+	 * removed too if it has no other interfaces in the grid.
+	 * @param ni The interface to be removed
+	 */
+	public void removeInterface(NetworkInterface ni) {
+		HostEntry entry = ginterfaces.remove(ni);
+		if (entry == null) {
+			return;
+		}
+
+		entries[ni.getAddress()] = null;
+		entry.interfaces.remove(ni);
+		if (entry.interfaces.isEmpty()) {
+			entry.cell.hosts.remove(entry);
+			hosts.remove(entry.host);
+		}
+		changes++;
+	}
+
+	/**
+	 * Adds interfaces to the grid
+	 * @param interfaces Collection of interfaces to add
+	 */
+	public void addInterfaces(Collection<NetworkInterface> interfaces) {
+		for (NetworkInterface n : interfaces) {
+			addInterface(n);
+		}
+	}
+
+	/**
+	 * Checks and updates (if necessary) the position of the interface's host
+	 * in the grid. Only the first interface of a host that is updated after
+	 * the host has moved changes anything.
+	 * @param ni The interface to update
+	 */
+	public void updateLocation(NetworkInterface ni) {
+		HostEntry entry = entries[ni.getAddress()];
+		Coord c = entry.host.getLocation();
+		if (c.getX() == entry.x && c.getY() == entry.y) {
+			return;
+		}
+
+		entry.x = c.getX();
+		entry.y = c.getY();
+		changes++;
+		HostCell newCell = cellFromCoord(c);
+		if (newCell != entry.cell) {
+			boolean removeOk = entry.cell.hosts.remove(entry);
+			assert removeOk : "host " + entry.host + " not found from cell";
+			newCell.hosts.add(entry);
+			entry.cell = newCell;
+		}
+	}
+
+	/**
+	 * Get the cell having the specific coordinates
+	 * @param c Coordinates
+	 * @return The cell
+	 */
+	private HostCell cellFromCoord(Coord c) {
+		// +1 due empty cells on both sides of the matrix
+		int row = (int)(c.getY()/cellSize) + 1; 
+		int col = (int)(c.getX()/cellSize) + 1;
+
+		assert row > 0 && row <= rows && col > 0 && col <= cols : "Location " + 
+		c + " is out of world's bounds";
+
+		return this.cells[row][col];
+	}
+
+	/**
+	 * Returns all interfaces in the grid (of all types)
+	 */
+	public Collection<NetworkInterface> getAllInterfaces() {
+		return (Collection<NetworkInterface>)ginterfaces.keySet();
+	}
+
+	/**
+	 * Returns all interfaces of the same type that are within range of the
+	 * interface
+	 */
+	public Collection<NetworkInterface> getNearInterfaces(
+			NetworkInterface netinterf) {
+		ArrayList<NetworkInterface> ni = new ArrayList<NetworkInterface>();
+		getNearInterfaces(netinterf, ni);
+		return ni;
+	}
+
+	/**
+	 * Stores all (other) interfaces of the same type that are within range
+	 * of the interface (see {@link NetworkInterface#isWithinRange(
+	 * NetworkInterface)}) to the given list. The near hosts are looked up 
+	 * only if some host has moved since they were last looked up for the 
+	 * interface's host.
+	 */
+	@Override
+	public void getNearInterfaces(NetworkInterface netinterf, 
+			List<NetworkInterface> near) {
+		near.clear();
+
+		int address = netinterf.getAddress();
+		if (address >= entries.length || entries[address] == null) {
+			return;
+		}
+		HostEntry entry = entries[address];
+		if (entry.nearChanges != this.changes) {
+			findNearHosts(entry);
+		}
+
+		String type = netinterf.getInterfaceType();
+		ArrayList<HostEntry> nearHosts = entry.near;
+		for (int i = 0, n = nearHosts.size(); i < n; i++) {
+			ArrayList<NetworkInterface> hostInterfaces = 
+				nearHosts.get(i).interfaces;
+			for (int k = 0, m = hostInterfaces.size(); k < m; k++) {
+				NetworkInterface ni = hostInterfaces.get(k);
+				if (ni != netinterf && ni.getInterfaceType().equals(type) &&
+						netinterf.isWithinRange(ni)) {
+					near.add(ni);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Looks up the hosts in the neighboring cells (and the host's own cell)
+	 * that are within the largest transmit range from the host. The hosts
+	 * are stored to the host's entry.
+	 * @param entry Entry of the host
+	 */
+	private void findNearHosts(HostEntry entry) {
+		entry.near.clear();
+		Coord c = entry.host.getLocation();
+		double x = c.getX();
+		double y = c.getY();
+		// +1 due empty cells on both sides of the matrix
+		int row = (int)(y/cellSize) + 1;
+		int col = (int)(x/cellSize) + 1;
+		for (int i = row-1; i <= row+1; i++) {
+			for (int j = col-1; j <= col+1; j++) {
+				ArrayList<HostEntry> cellHosts = cells[i][j].hosts;
+				for (int k = 0, n = cellHosts.size(); k < n; k++) {
+					HostEntry other = cellHosts.get(k);
+					Coord oc = other.host.getLocation();
+					double dx = x - oc.getX();
+					double dy = y - oc.getY();
+					if (dx*dx + dy*dy <= maxDistanceSq) {
+						entry.near.add(other);
+					}
+				}
+			}
+		}
+		entry.nearChanges = this.changes;
+	}
+
+	/**
+	 * Returns the number of hosts in the grid
+	 * @return the number of hosts in the grid
+	 */
+	public int getNrofHosts() {
+		return this.hosts.size();
+	}
+
+	/**
+	 * Returns a string representation of the grid
+	 * @return a string representation of the grid
+	 */
+	public String toString() {
+		return getClass().getSimpleName() + " of " + cols + "x" + rows + 
+			" cells with " + hosts.size() + " hosts, cell size=" + cellSize;
+	}
+
+	/**
+	 * Grid's information of a host: the host's interfaces in the grid, the
+	 * location and cell of the host at its last update, and the hosts that 
+	 * were near it at the last look up.
+	 */
+	private static class HostEntry {
+		private DTNHost host;
+		private double x;
+		private double y;
+		private HostCell cell;
+		private ArrayList<NetworkInterface> interfaces;
+		private ArrayList<HostEntry> near;
+		/** value of the grid's change counter at the last look up of the
+		 * near hosts (-1 if never) */
+		private long nearChanges;
+
+		private HostEntry(DTNHost host) {
+			this.host = host;
+			this.interfaces = new ArrayList<NetworkInterface>(1);
+			this.near = new ArrayList<HostEntry>();
+			this.nearChanges = -1;
+		}
+	}
+
+	/**
+	 * A single cell in the grid. Contains the hosts that are currently in
+	 * that part of the grid.
+	 */
+	private static class HostCell {
+		// how large array is initially chosen
+		private static final int EXPECTED_HOST_COUNT = 5;
+		private ArrayList<HostEntry> hosts = 
+			new ArrayList<HostEntry>(EXPECTED_HOST_COUNT);
+	}
+}
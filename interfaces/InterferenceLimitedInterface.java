@@ -4,7 +4,7 @@
  */
 package interfaces;
 
-import java.util.Collection;
+import java.util.List;
 
 import core.Connection;
 import core.DTNHost;
@@ -21,11 +21,23 @@ import core.VBRConnection;
 public class InterferenceLimitedInterface extends NetworkInterface {
 	protected int currentTransmitSpeed;
 	protected int numberOfTransmissions;
+	/** number of connected interfaces that are transferring (i.e., for 
+	 * which {@link #isTransferring()} returns true) */
+	protected int numberOfTransferringNeighbors;
+	/** number of active stations the current transmit speed was computed
+	 * for (-1 if the speed has not been computed yet) */
+	private int speedActive;
+	/** number of transmissions the current transmit speed was computed for */
+	private int speedTransmissions;
+	/** maximum transmit speed the current transmit speed was computed for */
+	private int speedMax;
 
 	public InterferenceLimitedInterface(Settings s) {
 		super(s);
 		this.currentTransmitSpeed = 0;
 		this.numberOfTransmissions = 0;
+		this.numberOfTransferringNeighbors = 0;
+		this.speedActive = -1;
 	}
 
 	/**
@@ -38,6 +50,8 @@ public class InterferenceLimitedInterface extends NetworkInterface {
 		this.transmitSpeed = ni.transmitSpeed;
 		this.currentTransmitSpeed = 0;
 		this.numberOfTransmissions = 0;
+		this.numberOfTransferringNeighbors = 0;
+		this.speedActive = -1;
 	}
 
 	
@@ -62,12 +76,12 @@ public class InterferenceLimitedInterface extends NetworkInterface {
 	public void connect(NetworkInterface anotherInterface) {
 		if (isScanning() 
 				&& anotherInterface.getHost().isActive()
-				&& isWithinRange(anotherInterface)
-				&& !isConnected(anotherInterface) 
+				&& !isConnected(anotherInterface)
+				&& isWithinRange(anotherInterface) 
 				&& (this != anotherInterface)) {
 			// new contact within range
 
-			Connection con = new VBRConnection(this.host, this,
+			Connection con = VBRConnection.obtain(this.host, this,
 					anotherInterface.getHost(), anotherInterface);
 			connect(con, anotherInterface);
 		}
@@ -79,55 +93,125 @@ public class InterferenceLimitedInterface extends NetworkInterface {
 	 */
 	public void update() {
 		// First break the old ones
-		optimizer.updateLocation(this);
-		for (int i=0; i<this.connections.size(); ) {
-			Connection con = this.connections.get(i);
-			NetworkInterface anotherInterface = con.getOtherInterface(this);
-
-			// all connections should be up at this stage
-			assert con.isUp() : "Connection " + con + " was down!";
-
-			if (!isWithinRange(anotherInterface)) {
-				disconnect(con,anotherInterface);
-				connections.remove(i);
-			} else {
-				i++;
+		updateLocation();
+		if (shouldCheckConnections()) {
+			for (int i=0; i<this.connections.size(); ) {
+				Connection con = this.connections.get(i);
+				NetworkInterface anotherInterface = 
+					con.getOtherInterface(this);
+
+				// all connections should be up at this stage
+				assert con.isUp() : "Connection " + con + " was down!";
+
+				if (!isWithinRange(anotherInterface)) {
+					disconnect(con,anotherInterface);
+					connections.remove(i);
+				} else {
+					i++;
+				}
 			}
 		}
 		// Then find new possible connections
-		Collection<NetworkInterface> interfaces = 
-			optimizer.getNearInterfaces(this);
-		for (NetworkInterface i : interfaces) 
-			connect(i);
+		List<NetworkInterface> interfaces = 
+			getNearInterfaces();
+		for (int i=0, n=interfaces.size(); i<n; i++) 
+			connect(interfaces.get(i));
 
+		updateConnections();
+	}
+
+	/**
+	 * Updates the current transmit speed and the transfers of the current
+	 * connections.
+	 */
+	@Override
+	public void updateConnections() {
 		// Find the current number of transmissions
 		// (to calculate the current transmission speed
-		numberOfTransmissions = 0;
-		int numberOfActive = 1;
-		for (Connection con : this.connections) {
-			if (con.getMessage() != null) {
-				numberOfTransmissions++;
+		int nrofCons = this.connections.size();
+		int transmissions = 0;
+		for (int i=0; i<nrofCons; i++) {
+			if (this.connections.get(i).getMessage() != null) {
+				transmissions++;
 			}
-			if (((InterferenceLimitedInterface)con.getOtherInterface(this)).
-					isTransferring() == true) {
-				numberOfActive++;
+		}
+		if ((transmissions > 0) != isTransferring()) {
+			// transferring state changed; let the neighbors know
+			int change = (transmissions > 0 ? 1 : -1);
+			for (int i=0; i<nrofCons; i++) {
+				NetworkInterface other = 
+					this.connections.get(i).getOtherInterface(this);
+				((InterferenceLimitedInterface)other).
+					numberOfTransferringNeighbors += change;
 			}
 		}
+		numberOfTransmissions = transmissions;
+		int numberOfActive = 1 + numberOfTransferringNeighbors;
 
 		int ntrans = numberOfTransmissions;
 		if ( numberOfTransmissions < 1) ntrans = 1;
 		if ( numberOfActive <2 ) numberOfActive = 2;
 
-		// Based on the equation of Gupta and Kumar - and the transmission speed
-		// is divided equally to all the ongoing transmissions 
-		currentTransmitSpeed = (int)Math.floor((double)transmitSpeed / 
-				(Math.sqrt((1.0*numberOfActive) *
-						Math.log(1.0*numberOfActive))) /
+		if (numberOfActive != speedActive || ntrans != speedTransmissions ||
+				transmitSpeed != speedMax) {
+			// Based on the equation of Gupta and Kumar - and the transmission 
+			// speed is divided equally to all the ongoing transmissions 
+			currentTransmitSpeed = (int)Math.floor((double)transmitSpeed / 
+					(Math.sqrt((1.0*numberOfActive) *
+							Math.log(1.0*numberOfActive))) /
 							ntrans );
+			speedActive = numberOfActive;
+			speedTransmissions = ntrans;
+			speedMax = transmitSpeed;
+		}
 		
-		for (Connection con : getConnections()) {
-			con.update();
+		for (int i=0; i<nrofCons; i++) {
+			this.connections.get(i).update();
+		}
+	}
+
+	/**
+	 * Updates the transferring neighbor counts of both ends of a connection
+	 * that was set up or torn down
+	 * @param anotherInterface The interface in the other end of the 
+	 * connection
+	 * @param change +1 if the connection was set up, -1 if torn down
+	 */
+	private void changeNeighbor(NetworkInterface anotherInterface, 
+			int change) {
+		InterferenceLimitedInterface other = 
+			(InterferenceLimitedInterface)anotherInterface;
+		if (other.isTransferring()) {
+			this.numberOfTransferringNeighbors += change;
+		}
+		if (this.isTransferring()) {
+			other.numberOfTransferringNeighbors += change;
+		}
+	}
+
+	@Override
+	protected void connect(Connection con, NetworkInterface anotherInterface) {
+		super.connect(con, anotherInterface);
+		changeNeighbor(anotherInterface, 1);
+	}
+
+	@Override
+	protected void disconnect(Connection con, 
+			NetworkInterface anotherInterface) {
+		super.disconnect(con, anotherInterface);
+		changeNeighbor(anotherInterface, -1);
+	}
+
+	@Override
+	public void destroyConnection(NetworkInterface anotherInterface) {
+		DTNHost anotherHost = anotherInterface.getHost();
+		for (int i=0, n=this.connections.size(); i<n; i++) {
+			Connection con = this.connections.get(i);
+			if (con.getOtherNode(this.host) == anotherHost) {
+				changeNeighbor(con.getOtherInterface(this), -1);
+			}
 		}
+		super.destroyConnection(anotherInterface);
 	}
 
 	/** 
@@ -139,7 +223,7 @@ public class InterferenceLimitedInterface extends NetworkInterface {
 		if (!isConnected(anotherInterface) && (this != anotherInterface)) {
 			// new contact within range
 
-			Connection con = new VBRConnection(this.host, this, 
+			Connection con = VBRConnection.obtain(this.host, this, 
 					anotherInterface.getHost(), anotherInterface);
 			connect(con,anotherInterface);
 		}
@@ -0,0 +1,173 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package interfaces;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+
+import core.DTNHost;
+import core.Message;
+import core.MessageListener;
+import core.NetworkInterface;
+import core.Settings;
+import core.SimError;
+import core.SimScenario;
+import core.World;
+
+/**
+ * Benchmark for the {@link InterferenceLimitedInterface} in dense clusters.
+ * All the hosts move (with {@link movement.ClusterMovement}) inside one
+ * small cluster so that every interface has many connections with ongoing
+ * transfers, and the average time of one world update is measured. The sum 
+ * of the current transmit speeds and connection counts of all interfaces 
+ * over the measured updates is printed as a checksum that should not change
+ * when the implementation is optimized. The number of finished transfers is
+ * printed too, and the benchmark fails (with a {@link SimError}) if none of
+ * the transfers was finished, e.g., because the variable bit-rate 
+ * connections weren't updated. The settings of the scenario can be given as
+ * arguments (defaults in parenthesis). Usage:
+ * <PRE>java interfaces.InterferenceLimitedInterfaceBenchmark [nrofHosts (500) 
+ * [clusterRange (100) [updates (2000) [continuousContacts (false)]]]]</PRE>
+ */
+public class InterferenceLimitedInterfaceBenchmark {
+	/** default number of hosts */
+	private static final int DEF_NROF_HOSTS = 500;
+	/** default radius of the cluster */
+	private static final int DEF_CLUSTER_RANGE = 100;
+	/** default number of measured updates */
+	private static final int DEF_UPDATES = 2000;
+	/** number of warm up updates before measuring */
+	private static final int WARMUP_UPDATES = 500;
+
+	/**
+	 * Runs the benchmark
+	 * @param args Number of hosts, cluster range, number of updates and
+	 * should the continuous contacts mode (see 
+	 * {@link World#CONTINUOUS_CONTACTS_S}) be used
+	 */
+	public static void main(String[] args) throws IOException {
+		int nrofHosts = args.length > 0 ? Integer.parseInt(args[0]) : 
+			DEF_NROF_HOSTS;
+		int clusterRange = args.length > 1 ? Integer.parseInt(args[1]) : 
+			DEF_CLUSTER_RANGE;
+		int updates = args.length > 2 ? Integer.parseInt(args[2]) : 
+			DEF_UPDATES;
+		boolean continuousContacts = args.length > 3 ? 
+				Boolean.parseBoolean(args[3]) : false;
+
+		initSettings(nrofHosts, clusterRange, WARMUP_UPDATES + updates, 
+				continuousContacts);
+		SimScenario scenario = SimScenario.getInstance();
+		TransferCounter counter = new TransferCounter();
+		scenario.addMessageListener(counter);
+		World world = scenario.getWorld();
+		List<DTNHost> hosts = world.getHosts();
+
+		for (int i = 0; i < WARMUP_UPDATES; i++) {
+			world.update();
+		}
+		long checksum = 0;
+		long nrofConnections = 0;
+		long time = 0;
+		for (int i = 0; i < updates; i++) {
+			long start = System.nanoTime();
+			world.update();
+			time += System.nanoTime() - start;
+
+			for (int j = 0, n = hosts.size(); j < n; j++) {
+				for (NetworkInterface ni : hosts.get(j).getInterfaces()) {
+					checksum += ni.getTransmitSpeed();
+					nrofConnections += ni.getConnections().size();
+				}
+			}
+		}
+
+		System.out.println("# nodes cluster_range us_per_update " + 
+				"connections_per_update checksum transfers");
+		System.out.printf("%d %d %.1f %.1f %d %d%n", nrofHosts, clusterRange, 
+				time / 1000.0 / updates, (double)nrofConnections / updates,
+				checksum, counter.transfers);
+
+		if (counter.transfers == 0) {
+			throw new SimError("No message transfers were finished " + 
+					"(continuous contacts: " + continuousContacts + ")");
+		}
+	}
+
+	/**
+	 * Counts the finished message transfers
+	 */
+	private static class TransferCounter implements MessageListener {
+		/** number of finished transfers */
+		private long transfers = 0;
+
+		public void newMessage(Message m) {}
+
+		public void messageTransferStarted(Message m, DTNHost from, 
+				DTNHost to) {}
+
+		public void messageDeleted(Message m, DTNHost where, 
+				boolean dropped) {}
+
+		public void messageTransferAborted(Message m, DTNHost from, 
+				DTNHost to) {}
+
+		public void messageTransferred(Message m, DTNHost from, DTNHost to,
+				boolean firstDelivery) {
+			this.transfers++;
+		}
+	}
+
+	/**
+	 * Writes the settings of the scenario to a temporary file and 
+	 * initializes the settings from it
+	 */
+	private static void initSettings(int nrofHosts, int clusterRange,
+			int endTime, boolean continuousContacts) throws IOException {
+		int worldSize = 2 * clusterRange + 100;
+		String[] settings = {
+			"Scenario.name = InterferenceLimitedInterfaceBenchmark",
+			"Scenario.simulateConnections = true",
+			"Scenario.updateInterval = 1.0",
+			"Scenario.endTime = " + endTime,
+			"Scenario.nrofHostGroups = 1",
+			"ili.type = InterferenceLimitedInterface",
+			"ili.transmitSpeed = 2M",
+			"ili.transmitRange = 20",
+			"Group.groupID = n",
+			"Group.nrofHosts = " + nrofHosts,
+			"Group.movementModel = ClusterMovement",
+			"Group.clusterRange = " + clusterRange,
+			"Group.clusterCenter = " + worldSize / 2 + "," + worldSize / 2,
+			"Group.router = EpidemicRouter",
+			"Group.bufferSize = 50M",
+			"Group.waitTime = 0, 120",
+			"Group.speed = 0.5, 1.5",
+			"Group.nrofInterfaces = 1",
+			"Group.interface1 = ili",
+			"Events.nrof = 1",
+			"Events1.class = MessageEventGenerator",
+			"Events1.interval = 1, 2",
+			"Events1.size = 500k, 1M",
+			"Events1.hosts = 0, " + (nrofHosts - 1),
+			"Events1.prefix = M",
+			"MovementModel.rngSeed = 1",
+			"MovementModel.worldSize = " + worldSize + "," + worldSize,
+			World.SETTINGS_NS + "." + World.CONTINUOUS_CONTACTS_S + " = " + 
+				continuousContacts,
+		};
+
+		File f = File.createTempFile("ilibench", ".txt");
+		f.deleteOnExit();
+		FileWriter w = new FileWriter(f);
+		for (String s : settings) {
+			w.write(s + "\n");
+		}
+		w.close();
+		Settings.init(f.getPath());
+	}
+}
@@ -4,7 +4,7 @@
  */
 package interfaces;
 
-import java.util.Collection;
+import java.util.List;
 
 import core.CBRConnection;
 import core.Connection;
@@ -45,8 +45,8 @@ public class SimpleBroadcastInterface extends NetworkInterface {
 	public void connect(NetworkInterface anotherInterface) {
 		if (isScanning()  
 				&& anotherInterface.getHost().isActive() 
-				&& isWithinRange(anotherInterface) 
 				&& !isConnected(anotherInterface)
+				&& isWithinRange(anotherInterface)
 				&& (this != anotherInterface)) {
 			// new contact within range
 			// connection speed is the lower one of the two speeds 
@@ -55,7 +55,7 @@ public class SimpleBroadcastInterface extends NetworkInterface {
 				conSpeed = this.transmitSpeed; 
 			}
 
-			Connection con = new CBRConnection(this.host, this, 
+			Connection con = CBRConnection.obtain(this.host, this, 
 					anotherInterface.getHost(), anotherInterface, conSpeed);
 			connect(con,anotherInterface);
 		}
@@ -67,27 +67,30 @@ public class SimpleBroadcastInterface extends NetworkInterface {
 	 */
 	public void update() {
 		// First break the old ones
-		optimizer.updateLocation(this);
-		for (int i=0; i<this.connections.size(); ) {
-			Connection con = this.connections.get(i);
-			NetworkInterface anotherInterface = con.getOtherInterface(this);
+		updateLocation();
+		if (shouldCheckConnections()) {
+			for (int i=0; i<this.connections.size(); ) {
+				Connection con = this.connections.get(i);
+				NetworkInterface anotherInterface = 
+					con.getOtherInterface(this);
 
-			// all connections should be up at this stage
-			assert con.isUp() : "Connection " + con + " was down!";
+				// all connections should be up at this stage
+				assert con.isUp() : "Connection " + con + " was down!";
 
-			if (!isWithinRange(anotherInterface)) {
-				disconnect(con,anotherInterface);
-				connections.remove(i);
-			}
-			else {
-				i++;
+				if (!isWithinRange(anotherInterface)) {
+					disconnect(con,anotherInterface);
+					connections.remove(i);
+				}
+				else {
+					i++;
+				}
 			}
 		}
 		// Then find new possible connections
-		Collection<NetworkInterface> interfaces =
-			optimizer.getNearInterfaces(this);
-		for (NetworkInterface i : interfaces) {
-			connect(i);
+		List<NetworkInterface> interfaces =
+			getNearInterfaces();
+		for (int i=0, n=interfaces.size(); i<n; i++) {
+			connect(interfaces.get(i));
 		}
 	}
 
@@ -104,7 +107,7 @@ public class SimpleBroadcastInterface extends NetworkInterface {
 				conSpeed = this.transmitSpeed; 
 			}
 
-			Connection con = new CBRConnection(this.host, this, 
+			Connection con = CBRConnection.obtain(this.host, this, 
 					anotherInterface.getHost(), anotherInterface, conSpeed);
 			connect(con,anotherInterface);
 		}
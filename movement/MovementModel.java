@@ -43,7 +43,13 @@ public abstract class MovementModel {
 	public static final String RNG_SEED = "rngSeed";
 	
 	/** common rng for all movement models in the simulation */
-	protected static Random rng; 
+	private static Random commonRng;
+	/** seed of the common rng (used also for seeding own rngs) */
+	private static int rngSeed;
+
+	/** rng of this movement model (the common rng unless 
+	 * {@link #useOwnRng(int)} has been called) */
+	protected Random rng;
 	
 	private ActivenessHandler ah;
 		
@@ -87,6 +93,7 @@ public abstract class MovementModel {
 	 */
 	public MovementModel() {
 		super();
+		this.rng = commonRng;
 	}
 	
 	/**
@@ -97,6 +104,7 @@ public abstract class MovementModel {
 		double[] speeds;
 		double[] times;
 		
+		this.rng = commonRng;
 		ah = new ActivenessHandler(settings);
 		
 		if (settings.contains(SPEED)) {
@@ -143,6 +151,7 @@ public abstract class MovementModel {
 		this.maxY = mm.maxY;
 		this.ah = mm.ah;
 		this.comBus = null;
+		this.rng = mm.rng;
 	}
 		
 	/**
@@ -188,6 +197,30 @@ public abstract class MovementModel {
 			minWaitTime;
 	}
 
+	/**
+	 * Makes this movement model use a random number generator of its own
+	 * instead of the one common to all movement models. The generator is
+	 * seeded using the {@link #RNG_SEED} and the given stream index so the
+	 * values it gives do not depend on the use of the other models' 
+	 * generators (e.g., on the order in which the nodes are moved).
+	 * @param streamIndex Index of the random number stream (e.g., the
+	 * address of the node); different models should use different indexes
+	 */
+	public void useOwnRng(int streamIndex) {
+		this.rng = new Random(((long)rngSeed << 32) ^ streamIndex);
+	}
+
+	/**
+	 * Returns true if this movement model can create new paths concurrently
+	 * with the other movement models, i.e., it doesn't modify any state 
+	 * shared with other models (other than the common rng, see 
+	 * {@link #useOwnRng(int)}). This implementation returns false.
+	 * @return true if the model can be moved concurrently with other models
+	 */
+	public boolean isConcurrentlyMovable() {
+		return false;
+	}
+
 	/**
 	 * Returns a new path by this movement model or null if no new path could
 	 * be constructed at the moment (node should wait where it is). A new
@@ -256,12 +289,12 @@ public abstract class MovementModel {
 	public static void reset() {
 		Settings s = new Settings(MOVEMENT_MODEL_NS);
 		if (s.contains(RNG_SEED)) {
-			int seed = s.getInt(RNG_SEED);
-			rng = new Random(seed);
+			rngSeed = s.getInt(RNG_SEED);
 		}
 		else {
-			rng = new Random(0);
+			rngSeed = 0;
 		}
+		commonRng = new Random(rngSeed);
 	}
 	
 }
@@ -0,0 +1,38 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package report;
+
+import routing.DeliveredOracle;
+
+/**
+ * Reports how the routers used the delivered messages oracle (see 
+ * {@link DeliveredOracle} and {@link routing.ActiveRouter#PURGE_DELIVERED_S}):
+ * the number of delivered messages, how many times the routers purged the
+ * delivered messages from their buffers, how many messages were purged and
+ * how many transfers were rejected because the message was already 
+ * delivered. The purged messages are also reported as removed messages by
+ * the other reports (e.g., {@link MessageStatsReport}), so this report tells
+ * how much of that is caused by the oracle.
+ */
+public class DeliveredOracleReport extends Report {
+
+	/**
+	 * Constructor.
+	 */
+	public DeliveredOracleReport() {
+		init();
+	}
+
+	@Override
+	public void done() {
+		write("Delivered oracle for scenario " + getScenarioName() + 
+				"\nsim_time: " + format(getSimTime()));
+		write("delivered: " + DeliveredOracle.getNrofDelivered());
+		write("purges: " + DeliveredOracle.getNrofPurges());
+		write("purged: " + DeliveredOracle.getNrofPurged());
+		write("denied: " + DeliveredOracle.getNrofDenied());
+		super.done();
+	}
+}
@@ -0,0 +1,45 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package report;
+
+import routing.drop.DropPolicyMetrics;
+
+/**
+ * Reports the work done by the drop policies of the routers. For every 
+ * policy that has been used, writes the number of dropped messages, the 
+ * number of times a message to drop was selected, the number of messages
+ * examined in the selections and the time used for them. Can be used for
+ * comparing the overhead of the policies.
+ */
+public class DropPolicyReport extends Report {
+
+	/**
+	 * Constructor.
+	 */
+	public DropPolicyReport() {
+		init();
+	}
+
+	@Override
+	public void done() {
+		write("Drop policies for scenario " + getScenarioName() + 
+				"\nsim_time: " + format(getSimTime()));
+		write("# policy drops selections scanned scanned_per_selection " +
+				"selection_ms us_per_selection");
+
+		for (DropPolicyMetrics m : DropPolicyMetrics.getAllMetrics()) {
+			long selections = m.getNrofSelections();
+			double ms = m.getSelectionNanos() / 1000000.0;
+			write(m.getPolicyName() + " " + m.getNrofDrops() + " " + 
+					selections + " " + m.getNrofScanned() + " " + 
+					format(selections > 0 ? 
+							1.0 * m.getNrofScanned() / selections : 0) + 
+					" " + format(ms) + " " + 
+					format(selections > 0 ? 1000 * ms / selections : 0));
+		}
+
+		super.done();
+	}
+}
@@ -0,0 +1,109 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package report;
+
+import java.util.List;
+
+import core.DTNHost;
+import core.Settings;
+import core.UpdateListener;
+
+/**
+ * Reports how much wall clock time the simulation takes per simulated
+ * time unit. Can be used for benchmarking different optimization settings
+ * (e.g., serial and parallel updates) with the same scenario. Writes a line
+ * with the simulation time, wall clock seconds of the last period, and the 
+ * wall clock seconds per simulated hour every "granularity" simulated seconds
+ * and the total values at the end. Warm up time is not included. 
+ */
+public class WallClockTimeReport extends Report implements UpdateListener {
+	/** Reporting granularity -setting id ({@value}). Defines the interval 
+	 * (simulated seconds) of the reported periods. Default is 
+	 * {@link #DEF_GRANULARITY} */
+	public static final String GRANULARITY = "granularity";
+	/** Default value for the granularity setting ({@value}) */
+	public static final int DEF_GRANULARITY = 3600;
+	/** Number of simulated seconds in an hour */
+	private static final double HOUR = 3600.0;
+
+	private int granularity;
+	/** sim time of the last reported period's end */
+	private double lastUpdate;
+	/** wall clock time (ns) of the last reported period's end */
+	private long lastUpdateRt;
+	/** sim time when the measurement started */
+	private double startTime;
+	/** wall clock time (ns) when the measurement started */
+	private long startTimeRt;
+	
+	/**
+	 * Constructor.
+	 */
+	public WallClockTimeReport() {
+		Settings settings = getSettings();
+		if (settings.contains(GRANULARITY)) {
+			this.granularity = settings.getInt(GRANULARITY);
+		}
+		else {
+			this.granularity = DEF_GRANULARITY;
+		}
+		this.startTimeRt = -1;
+		init();
+	}
+
+	@Override
+	protected void init() {
+		super.init();
+		write("# simTime wallClockSeconds wallClockSecondsPerSimHour");
+	}
+
+	/**
+	 * Writes a line for every finished period
+	 * @param hosts All the hosts in the world
+	 */
+	public void updated(List<DTNHost> hosts) {
+		if (isWarmup()) {
+			return;
+		}
+
+		double simTime = getSimTime();
+		long now = System.nanoTime();
+		
+		if (this.startTimeRt < 0) { /* first update after the warm up */
+			this.startTime = this.lastUpdate = simTime;
+			this.startTimeRt = this.lastUpdateRt = now;
+			return;
+		}
+		
+		if (simTime - lastUpdate >= granularity) {
+			write(format(simTime) + " " + 
+					getLine(simTime - lastUpdate, now - lastUpdateRt));
+			this.lastUpdate = simTime;
+			this.lastUpdateRt = now;
+		}
+	}
+	
+	/**
+	 * Returns the wall clock seconds and wall clock seconds per simulated 
+	 * hour in a string
+	 * @param simDuration Simulated seconds
+	 * @param wallClockDuration Wall clock nanoseconds
+	 * @return The values in a string
+	 */
+	private String getLine(double simDuration, long wallClockDuration) {
+		double seconds = wallClockDuration / 1e9;
+		return format(seconds) + " " + 
+			format(seconds * HOUR / simDuration);
+	}
+	
+	@Override
+	public void done() {
+		if (this.startTimeRt >= 0) {
+			write("total " + getLine(getSimTime() - startTime, 
+					System.nanoTime() - startTimeRt));
+		}
+		super.done();
+	}
+}
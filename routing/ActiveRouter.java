@@ -5,13 +5,22 @@
 package routing;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Random;
 
+import routing.drop.DropPolicy;
+import routing.drop.DropPolicyRegistry;
+import routing.drop.FifoDropPolicy;
+import routing.drop.LrfDropPolicy;
+import routing.drop.MdmfDropPolicy;
+import routing.drop.MessageIndex;
+import routing.drop.MofoDropPolicy;
+import routing.drop.RandomDropPolicy;
 import core.Connection;
 import core.DTNHost;
+import core.LongHashMap;
 import core.Message;
 import core.MessageListener;
 import core.Settings;
@@ -36,6 +45,17 @@ public abstract class ActiveRouter extends MessageRouter {
 	 * message buffer
 	 */
 	protected boolean deleteDelivered;
+	/**
+	 * Purge delivered messages -setting id ({@value}). Boolean valued. If 
+	 * set to true, the router uses the {@link DeliveredOracle} for deleting
+	 * all the messages that have been delivered to their final recipients
+	 * from its buffer when a new connection comes up, and for rejecting such
+	 * messages from other hosts. The purges are reported by 
+	 * {@link report.DeliveredOracleReport}. Default=false.
+	 */
+	public static final String PURGE_DELIVERED_S = "purgeDelivered";
+	/** should the messages that the oracle knows to be delivered be purged */
+	protected boolean purgeDelivered;
 
 	/** prefix of all response message IDs */
 	public static final String RESPONSE_PREFIX = "R_";
@@ -43,6 +63,8 @@ public abstract class ActiveRouter extends MessageRouter {
 	public static int TTL_CHECK_INTERVAL = 60;
 	/** connection(s) that are currently used for sending */
 	protected ArrayList<Connection> sendingConnections;
+	/** sending connections by the IDs of the messages they were started with */
+	private HashMap<String, Connection> sendingMessages;
 	/** sim time when the last TTL check was done */
 	private double lastTtlCheck;
 
@@ -54,8 +76,30 @@ public abstract class ActiveRouter extends MessageRouter {
 	public static final int DROP_MODE_RANDOM = 1;
 	public static final int DROP_MODE_LRF = 3;
         public static final int DROP_MODE_LPS = 4;
+	public static final int DROP_MODE_MOFO = 5;
+	public static final int DROP_MODE_MDMF = 6;
         public static final int DROPQUEUEMODE_MIN = 1;
-        public static final int DROPQUEUEMODE_MAX = 4;
+        public static final int DROPQUEUEMODE_MAX = 6;
+
+	/**
+	 * Drop policy -setting id ({@value}). Name of the policy that selects
+	 * the messages to drop when the buffer is full. Either the name of a 
+	 * built in drop queue mode (RANDOM, FIFO, LRF, LPS, MOFO or MDMF) or the
+	 * name of a {@link DropPolicy} class (see {@link DropPolicyRegistry}).
+	 * Overrides the {@link #DROP_QUEUE_MODE} setting.
+	 */
+	public static final String DROP_POLICY_S = "dropPolicy";
+
+	/** name of the drop policy that isn't built in (or null) */
+	private String dropPolicyName;
+	/** policy that selects the messages to drop */
+	private DropPolicy dropPolicy;
+	/** the buffered messages ordered by their receive time */
+	private MessageIndex receiveTimeIndex;
+	/** the buffered messages by the addresses of their final recipients */
+	private LongHashMap<List<Message>> destinationIndex;
+	/** number of changes in the message buffer so far */
+	private long bufferVersion;
 	
 	/**
 	 * Constructor. Creates a new message router based on the settings in the
@@ -72,6 +116,11 @@ public abstract class ActiveRouter extends MessageRouter {
 		} else {
 			this.deleteDelivered = false;
 		}
+		if (s.contains(PURGE_DELIVERED_S)) {
+			this.purgeDelivered = s.getBoolean(PURGE_DELIVERED_S);
+		} else {
+			this.purgeDelivered = false;
+		}
 
 		// novas políticas de descarte @julianofischer
 		if (s.contains(DROP_QUEUE_MODE)) {
@@ -83,6 +132,17 @@ public abstract class ActiveRouter extends MessageRouter {
 		} else {
 			setDropQueueMode(DROP_MODE_FIFO);
 		}
+
+		if (s.contains(DROP_POLICY_S)) {
+			String name = s.getSetting(DROP_POLICY_S);
+			int mode = DropPolicyRegistry.getMode(name);
+			if (mode > 0) {
+				setDropQueueMode(mode);
+			} else {
+				DropPolicyRegistry.getPolicyClass(name); /* check it exists */
+				this.dropPolicyName = name;
+			}
+		}
 	}
 
 	/**
@@ -94,14 +154,144 @@ public abstract class ActiveRouter extends MessageRouter {
 	protected ActiveRouter(ActiveRouter r) {
 		super(r);
 		this.deleteDelivered = r.deleteDelivered;
+		this.purgeDelivered = r.purgeDelivered;
 		this.setDropQueueMode(r.getDropQueueMode());
+		this.dropPolicyName = r.dropPolicyName;
 	}
 
 	@Override
 	public void init(DTNHost host, List<MessageListener> mListeners) {
 		super.init(host, mListeners);
 		this.sendingConnections = new ArrayList<Connection>(1);
+		this.sendingMessages = new HashMap<String, Connection>(4);
 		this.lastTtlCheck = 0;
+		if (this.dropPolicyName != null) {
+			this.dropPolicy = DropPolicyRegistry.createPolicy(
+					this.dropPolicyName, this);
+		} else {
+			this.dropPolicy = createDropPolicy(getDropQueueMode());
+		}
+		this.receiveTimeIndex = new MessageIndex(true, 
+				this.dropPolicy.getMetrics());
+		this.destinationIndex = new LongHashMap<List<Message>>();
+		this.bufferVersion = 0;
+	}
+
+	/**
+	 * Creates the drop policy for a drop queue mode. Subclasses that support
+	 * other modes should override this.
+	 * @param mode The drop queue mode (one of the DROP_MODE_* values)
+	 * @return A new drop policy for this router
+	 * @throws SettingsError if the mode isn't supported by this router
+	 */
+	protected DropPolicy createDropPolicy(int mode) {
+		switch (mode) {
+		case DROP_MODE_FIFO:
+			return new FifoDropPolicy(this);
+		case DROP_MODE_RANDOM:
+			return new RandomDropPolicy(this);
+		case DROP_MODE_LRF:
+			return new LrfDropPolicy(this);
+		case DROP_MODE_MOFO:
+			return new MofoDropPolicy(this);
+		case DROP_MODE_MDMF:
+			return new MdmfDropPolicy(this);
+		default:
+			throw new SettingsError("Drop queue mode " + mode + " (" + 
+					DropPolicyRegistry.getName(mode) + 
+					") is not supported by " + getClass().getSimpleName());
+		}
+	}
+
+	/**
+	 * Returns the drop policy of this router
+	 * @return the drop policy of this router
+	 */
+	protected DropPolicy getDropPolicy() {
+		return this.dropPolicy;
+	}
+
+	@Override
+	protected void addToMessages(Message m, boolean newMessage) {
+		Message old = getMessage(m.getId());
+		if (old != null) {
+			this.receiveTimeIndex.remove(old);
+			this.dropPolicy.messageRemoved(old);
+			removeFromDestinationIndex(old);
+		}
+		super.addToMessages(m, newMessage);
+		this.receiveTimeIndex.put(m, m.getReceiveTime());
+		this.dropPolicy.messageAdded(m);
+		addToDestinationIndex(m);
+		this.bufferVersion++;
+	}
+
+	@Override
+	protected Message removeFromMessages(String id) {
+		Message m = super.removeFromMessages(id);
+		if (m != null) {
+			this.receiveTimeIndex.remove(m);
+			this.dropPolicy.messageRemoved(m);
+			removeFromDestinationIndex(m);
+			this.bufferVersion++;
+		}
+		return m;
+	}
+
+	/**
+	 * Returns the version of the message buffer. The version changes every 
+	 * time a message is added to or removed from the buffer, so routers can
+	 * tell if the values they have computed from the buffer's contents 
+	 * (e.g., lists of messages to send) are still valid.
+	 * @return The version of the message buffer
+	 */
+	protected long getBufferVersion() {
+		return this.bufferVersion;
+	}
+
+	/**
+	 * Adds a buffered message to the index of messages by their final 
+	 * recipients
+	 * @param m The message to add
+	 */
+	private void addToDestinationIndex(Message m) {
+		long key = m.getTo().getAddress();
+		List<Message> list = this.destinationIndex.get(key);
+		if (list == null) {
+			list = new ArrayList<Message>(2);
+			this.destinationIndex.put(key, list);
+		}
+		list.add(m);
+	}
+
+	/**
+	 * Removes a message from the index of messages by their final recipients
+	 * @param m The message to remove
+	 */
+	private void removeFromDestinationIndex(Message m) {
+		long key = m.getTo().getAddress();
+		List<Message> list = this.destinationIndex.get(key);
+		for (int i = 0, n = list.size(); i < n; i++) {
+			if (list.get(i) == m) {
+				list.remove(i);
+				break;
+			}
+		}
+		if (list.isEmpty()) {
+			this.destinationIndex.remove(key);
+		}
+	}
+
+	/**
+	 * Informs the drop policy that properties of a message (e.g., the 
+	 * forwarding time or the number of replicas) have changed. Nothing is
+	 * done if the message isn't in the buffer.
+	 * @param m The message that changed
+	 */
+	protected void messageUpdated(Message m) {
+		if (getMessage(m.getId()) == m) {
+			this.dropPolicy.messageUpdated(m);
+		}
 	}
 
 	/**
@@ -112,6 +302,42 @@ public abstract class ActiveRouter extends MessageRouter {
 	public void changedConnection(Connection con) {
 	}
 
+	/**
+	 * Purges the delivered messages from the buffer if 
+	 * {@link #PURGE_DELIVERED_S} is enabled.
+	 */
+	@Override
+	public void connectionUp(Connection con) {
+		if (this.purgeDelivered) {
+			purgeDeliveredMessages();
+		}
+	}
+
+	/**
+	 * Deletes the messages that have been delivered to their final 
+	 * recipients (according to the {@link DeliveredOracle}) from the buffer.
+	 * Messages that are being sent are not deleted.
+	 */
+	protected void purgeDeliveredMessages() {
+		List<String> purged = null;
+		for (Message m : getMessageCollection()) {
+			if (DeliveredOracle.isDelivered(m) && !isSending(m.getId())) {
+				if (purged == null) {
+					purged = new ArrayList<String>();
+				}
+				purged.add(m.getId());
+			}
+		}
+		if (purged == null) {
+			DeliveredOracle.addPurge(0);
+			return;
+		}
+		for (String id : purged) {
+			deleteMessage(id, false);
+		}
+		DeliveredOracle.addPurge(purged.size());
+	}
+
 	@Override
 	public boolean requestDeliverableMessages(Connection con) {
 		if (isTransferring()) {
@@ -182,6 +408,7 @@ public abstract class ActiveRouter extends MessageRouter {
 		int globalReplicas = m.getGlobalNumberOfReplicas();
 		globalReplicas++;
 		m.setGlobalNumberOfReplicas(globalReplicas);
+		messageUpdated(m);
 		
 		return m;
 	}
@@ -265,6 +492,11 @@ public abstract class ActiveRouter extends MessageRouter {
 			return DENIED_OLD; // already seen this message -> reject it
 		}
 
+		if (this.purgeDelivered && DeliveredOracle.isDelivered(m)) {
+			DeliveredOracle.addDenied();
+			return DENIED_OLD; // delivered elsewhere -> no use for it
+		}
+
 		if (m.getTtl() <= 0 && m.getTo() != getHost()) {
 			/* TTL has expired and this host is not the final recipient */
 			return DENIED_TTL;
@@ -296,20 +528,14 @@ public abstract class ActiveRouter extends MessageRouter {
 		/* delete messages from the buffer until there's enough space */
 		boolean excludeMsgBeingSent = true;
 		while (freeBuffer < size) {
-			Message m = null;
-
-			switch (this.getDropQueueMode()) {
-			case DROP_MODE_FIFO:
+			long start = System.nanoTime();
+			Message m = this.dropPolicy.selectMessage(excludeMsgBeingSent);
+			if (m == null && this.dropPolicy.dropsOldestByDefault()) {
 				m = getOldestMessage(excludeMsgBeingSent); // don't remove msgs
 				// being sent
-				break;
-			case DROP_MODE_RANDOM:
-				m = getRandomMessage(excludeMsgBeingSent);
-				break;
-			case DROP_MODE_LRF:
-				m = getLRFMessage(excludeMsgBeingSent);
-				break;
 			}
+			this.dropPolicy.getMetrics().addSelection(
+					System.nanoTime() - start);
 
 			if (m == null) {
 				return false; // couldn't remove any more messages
@@ -317,6 +543,7 @@ public abstract class ActiveRouter extends MessageRouter {
 
 			/* delete message from the buffer as "drop" */
 			deleteMessage(m.getId(), true);
+			this.dropPolicy.getMetrics().addDrop();
 			freeBuffer += m.getSize();
 		}
 
@@ -362,111 +589,99 @@ public abstract class ActiveRouter extends MessageRouter {
 	 *         exludeMsgBeingSent is true)
 	 */
 	protected Message getOldestMessage(boolean excludeMsgBeingSent) {
-		Collection<Message> messages = this.getMessageCollection();
-		Message oldest = null;
-		for (Message m : messages) {
-
-			if (excludeMsgBeingSent && isSending(m.getId())) {
-				continue; // skip the message(s) that router is sending
-			}
-
-			if (oldest == null) {
-				oldest = m;
-			} else if (oldest.getReceiveTime() > m.getReceiveTime()) {
-				oldest = m;
-			}
-		}
-
-		return oldest;
+		return this.receiveTimeIndex.getFirst(this, excludeMsgBeingSent);
 	}
 
 	/**
-	 * Returns a random message in the message buffer (that is not being sent if
-	 * excludeMsgBeingSent is true).
+	 * Returns a list of message-connections tuples of the messages whose
+	 * recipient is some host that we're connected to at the moment. The 
+	 * messages for the connected hosts are looked up from an index of the
+	 * messages by their recipients. Only if there is more than one tuple, 
+	 * the buffer is iterated (once, until all the tuples are found) to put
+	 * the tuples in the buffer's order.
 	 * 
-	 * @param excludeMsgBeingSent
-	 *            If true, excludes message(s) that are being sent.
-	 * @return The randomized message or null if no message could be returned
-	 *         (no messages in buffer or all messages in buffer are being sent
-	 *         and exludeMsgBeingSent is true)
-	 */
-	protected Message getRandomMessage(boolean excludeMsgBeingSent) {
-		Collection<Message> messages = this.getMessageCollection();
-		List<Message> messagesList = new ArrayList<Message>(messages);
-		Collections.shuffle(messagesList, new Random(SimClock.getIntTime()));
-		Message randomized = null;
-		// int i = 0;
-		while (messagesList.size() > 0 && randomized == null) {
-			Message m = messagesList.remove(0);
-			if (!excludeMsgBeingSent || !isSending(m.getId())) {
-				randomized = m;
-			}
+	 * @return a list of message-connections tuples
+	 */
+	protected List<Tuple<Message, Connection>> getMessagesForConnected() {
+		List<Connection> connections = getConnections();
+		if (getNrofMessages() == 0 || connections.size() == 0) {
+			/* no messages -> empty list */
+			return new ArrayList<Tuple<Message, Connection>>(0);
 		}
 
-		return randomized;
-	}
-
-	protected Message getLRFMessage(boolean excludeMsgBeingSent) {
-		Collection<Message> messages = this.getMessageCollection();
-		Message lrfMessage = null;
-
-		for (Message m : messages) {
-
-			if (excludeMsgBeingSent && isSending(m.getId())) {
-				continue; // skip the message(s) that router is sending
+		int nrofTuples = 0;
+		Message match = null;
+		Connection matchCon = null;
+		/* the connections to the recipients of the buffered messages by the
+		 * recipients' addresses (created when there's more than one) */
+		LongHashMap<List<Connection>> recipientCons = null;
+		for (int i = 0, n = connections.size(); i < n; i++) {
+			Connection con = connections.get(i);
+			int address = con.getOtherNode(getHost()).getAddress();
+			List<Message> msgs = this.destinationIndex.get(address);
+			if (msgs == null) {
+				continue;
 			}
-
-			/* Mudança feita no LRF no dia 30/09/2011 as 15:50 minutos.
-			 * A versão anterior não verificava se o tempo da primeira 
-			 * mensagem era maior que 0.0
-			 */
-			if (lrfMessage == null) {
-				if(m.getTimeForwarded()>0.0){
-					lrfMessage = m;
-				}
-			} else if ((lrfMessage.getTimeForwarded() > m.getTimeForwarded())
-					&& m.getTimeForwarded() > 0.0) {
-				/*
-				 * m was forwarded before lrfMessage
-                                 * m should have been forward at least 1 time
-				 */
-				lrfMessage = m;
+			if (matchCon != null && recipientCons == null) {
+				recipientCons = new LongHashMap<List<Connection>>();
+				addRecipientConnection(recipientCons, matchCon);
+			}
+			if (recipientCons != null) {
+				addRecipientConnection(recipientCons, con);
 			}
+			nrofTuples += msgs.size();
+			match = msgs.get(0);
+			matchCon = con;
 		}
 
-		// No message was forwarded. Another policy must be choose: FIFO
-		if (lrfMessage == null || lrfMessage.getTimeForwarded() <= 0.0) {
-			lrfMessage = getOldestMessage(excludeMsgBeingSent);
+		if (nrofTuples == 0) {
+			return new ArrayList<Tuple<Message, Connection>>(0);
+		}
+		List<Tuple<Message, Connection>> forTuples = 
+			new ArrayList<Tuple<Message, Connection>>(nrofTuples);
+		if (nrofTuples == 1) {
+			forTuples.add(new Tuple<Message, Connection>(match, matchCon));
+			return forTuples;
 		}
 
-		return lrfMessage;
-	}
-
-	/**
-	 * Returns a list of message-connections tuples of the messages whose
-	 * recipient is some host that we're connected to at the moment.
-	 * 
-	 * @return a list of message-connections tuples
-	 */
-	protected List<Tuple<Message, Connection>> getMessagesForConnected() {
-		if (getNrofMessages() == 0 || getConnections().size() == 0) {
-			/* no messages -> empty list */
-			return new ArrayList<Tuple<Message, Connection>>(0);
+		if (recipientCons == null) { // all the messages for one connection
+			recipientCons = new LongHashMap<List<Connection>>();
+			addRecipientConnection(recipientCons, matchCon);
 		}
 
-		List<Tuple<Message, Connection>> forTuples = new ArrayList<Tuple<Message, Connection>>();
 		for (Message m : getMessageCollection()) {
-			for (Connection con : getConnections()) {
-				DTNHost to = con.getOtherNode(getHost());
-				if (m.getTo() == to) {
-					forTuples.add(new Tuple<Message, Connection>(m, con));
-				}
+			List<Connection> cons = recipientCons.get(m.getTo().getAddress());
+			if (cons == null) {
+				continue;
+			}
+			for (int i = 0, n = cons.size(); i < n; i++) {
+				forTuples.add(new Tuple<Message, Connection>(m, cons.get(i)));
+			}
+			if (forTuples.size() == nrofTuples) {
+				break; // all tuples found
 			}
 		}
 
 		return forTuples;
 	}
 
+	/**
+	 * Adds a connection to a mapping of connections by the addresses of the
+	 * hosts on the other end of them
+	 * @param cons The mapping
+	 * @param con The connection to add
+	 */
+	private void addRecipientConnection(LongHashMap<List<Connection>> cons,
+			Connection con) {
+		int address = con.getOtherNode(getHost()).getAddress();
+		List<Connection> list = cons.get(address);
+		if (list == null) {
+			list = new ArrayList<Connection>(1);
+			cons.put(address, list);
+		}
+		list.add(con);
+	}
+
 	/**
 	 * Tries to send messages for the connections that are mentioned in the
 	 * Tuples in the order they are in the list until one of the connections
@@ -584,11 +799,16 @@ public abstract class ActiveRouter extends MessageRouter {
 			return null;
 		}
 
-		@SuppressWarnings(value = "unchecked")
-		Tuple<Message, Connection> t = tryMessagesForConnected(sortByQueueMode(getMessagesForConnected()));
+		List<Tuple<Message, Connection>> forTuples = 
+			getMessagesForConnected();
+		if (forTuples.size() > 0) {
+			@SuppressWarnings(value = "unchecked")
+			Tuple<Message, Connection> t = 
+				tryMessagesForConnected(sortByQueueMode(forTuples));
 
-		if (t != null) {
-			return t.getValue(); // started transfer
+			if (t != null) {
+				return t.getValue(); // started transfer
+			}
 		}
 
 		// didn't start transfer to any node -> ask messages from connected
@@ -625,7 +845,11 @@ public abstract class ActiveRouter extends MessageRouter {
 	 *            The connection to add
 	 */
 	protected void addToSendingConnections(Connection con) {
+		con.retain(); // released when removed from the sending connections
 		this.sendingConnections.add(con);
+		if (con.getMessage() != null) {
+			this.sendingMessages.put(con.getMessage().getId(), con);
+		}
 	}
 
 	/**
@@ -663,15 +887,11 @@ public abstract class ActiveRouter extends MessageRouter {
 	 * @return True if the message is being sent false if not
 	 */
 	public boolean isSending(String msgId) {
-		for (Connection con : this.sendingConnections) {
-			if (con.getMessage() == null) {
-				continue; // transmission is finalized
-			}
-			if (con.getMessage().getId().equals(msgId)) {
-				return true;
-			}
+		Connection con = this.sendingMessages.get(msgId);
+		if (con == null || con.getMessage() == null) {
+			return false; // not sent or transmission is finalized
 		}
-		return false;
+		return con.getMessage().getId().equals(msgId);
 	}
 
 	/**
@@ -717,6 +937,8 @@ public abstract class ActiveRouter extends MessageRouter {
 					this.makeRoomForMessage(0);
 				}
 				sendingConnections.remove(i);
+				sendingMessages.values().remove(con);
+				con.release();
 			} else {
 				/* index increase needed only if nothing was removed */
 				i++;
@@ -787,6 +1009,7 @@ public abstract class ActiveRouter extends MessageRouter {
 			}
 		}
 		
+		messageUpdated(m);
 	}
 
 	protected void setDropQueueMode(int dropQueueMode) {
@@ -0,0 +1,115 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package routing;
+
+import java.util.BitSet;
+
+import core.DTNSim;
+import core.Message;
+
+/**
+ * Simulation level oracle that knows which messages have been delivered to
+ * their final recipients. The messages are identified by their handles 
+ * (see {@link Message#getHandle()}). Routers that have the 
+ * {@link ActiveRouter#PURGE_DELIVERED_S} setting enabled use the oracle 
+ * for dropping and rejecting the messages that have already been delivered.
+ * The oracle also counts how much the routers have used it, so the effect 
+ * on the results can be reported (see {@link report.DeliveredOracleReport}).
+ */
+public class DeliveredOracle {
+	/** the handles of the delivered messages */
+	private static BitSet delivered;
+	private static int nrofDelivered;
+	private static long nrofPurges;
+	private static long nrofPurged;
+	private static long nrofDenied;
+
+	static {
+		DTNSim.registerForReset(DeliveredOracle.class.getCanonicalName());
+		reset();
+	}
+
+	/**
+	 * Resets the oracle and the counters
+	 */
+	public static void reset() {
+		delivered = new BitSet();
+		nrofDelivered = 0;
+		nrofPurges = 0;
+		nrofPurged = 0;
+		nrofDenied = 0;
+	}
+
+	/**
+	 * Marks a message delivered to its final recipient
+	 * @param m The message
+	 */
+	public static void setDelivered(Message m) {
+		if (!delivered.get(m.getHandle())) {
+			delivered.set(m.getHandle());
+			nrofDelivered++;
+		}
+	}
+
+	/**
+	 * Returns true if the message (any replicate of it) has been delivered
+	 * to its final recipient
+	 * @param m The message
+	 * @return true if the message has been delivered
+	 */
+	public static boolean isDelivered(Message m) {
+		return delivered.get(m.getHandle());
+	}
+
+	/**
+	 * Records a purge of the delivered messages from a router's buffer
+	 * @param nrofMessages How many messages were deleted
+	 */
+	public static void addPurge(int nrofMessages) {
+		nrofPurges++;
+		nrofPurged += nrofMessages;
+	}
+
+	/**
+	 * Records a message transfer that was rejected because the message was
+	 * already delivered
+	 */
+	public static void addDenied() {
+		nrofDenied++;
+	}
+
+	/**
+	 * Returns the number of different messages that have been delivered
+	 * @return the number of delivered messages
+	 */
+	public static int getNrofDelivered() {
+		return nrofDelivered;
+	}
+
+	/**
+	 * Returns how many times the routers purged their buffers
+	 * @return the number of purges
+	 */
+	public static long getNrofPurges() {
+		return nrofPurges;
+	}
+
+	/**
+	 * Returns how many messages the purges deleted in total
+	 * @return the number of purged messages
+	 */
+	public static long getNrofPurged() {
+		return nrofPurged;
+	}
+
+	/**
+	 * Returns how many transfers were rejected because the message was 
+	 * already delivered
+	 * @return the number of rejected transfers
+	 */
+	public static long getNrofDenied() {
+		return nrofDenied;
+	}
+}
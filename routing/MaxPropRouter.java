@@ -14,7 +14,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import routing.maxprop.MaxPropDijkstra;
+import routing.maxprop.MaxPropCostCache;
 import routing.maxprop.MeetingProbabilitySet;
 import core.Connection;
 import core.DTNHost;
@@ -50,8 +50,8 @@ public class MaxPropRouter extends ActiveRouter {
 	/** meeting probabilities of all hosts from this host's point of view 
 	 * mapped using host's network address */
 	private Map<Integer, MeetingProbabilitySet> allProbs;
-	/** the cost-to-node calculator */
-	private MaxPropDijkstra dijkstra;	
+	/** the cost-to-node calculator (with cached results) */
+	private MaxPropCostCache costCache;	
 	/** IDs of the messages that are known to have reached the final dst */
 	private Set<String> ackedMessageIds;
 	/** mapping of the current costs for all messages. This should be set to
@@ -60,6 +60,21 @@ public class MaxPropRouter extends ActiveRouter {
 	private Map<Integer, Double> costsForMessages;
 	/** From host of the last cost calculation */
 	private DTNHost lastCostFrom;
+	/** Message buffer version of the last cost calculation */
+	private long costsBufferVersion;
+	/** the message-connection tuples of the last update in sending order. 
+	 * This should be set to null always when the costs are invalidated */
+	private List<Tuple<Message, Connection>> otherTuples;
+	/** the message-connection tuples of the last update in collecting order */
+	private List<Tuple<Message, Connection>> otherCandidates;
+	/** message buffer version when the tuples were sorted */
+	private long otherTuplesBufferVersion;
+	/** average transferred bytes value when the tuples were sorted */
+	private int otherTuplesAvgBytes;
+	/** the connected hosts and their tuples in the last update */
+	private List<NeighbourState> neighbourStates;
+	/** message buffer version when the neighbour states were created */
+	private long neighbourStatesVersion;
 		
 	/** Over how many samples the "average number of bytes transferred per
 	 * transfer opportunity" is taken */
@@ -110,7 +125,7 @@ public class MaxPropRouter extends ActiveRouter {
 		this.alpha = r.alpha;
 		this.probs = new MeetingProbabilitySet(probSetMaxSize, this.alpha);
 		this.allProbs = new HashMap<Integer, MeetingProbabilitySet>();
-		this.dijkstra = new MaxPropDijkstra(this.allProbs);
+		this.costCache = new MaxPropCostCache(this.allProbs);
 		this.ackedMessageIds = new HashSet<String>();
 		this.avgSamples = new int[BYTES_TRANSFERRED_AVG_SAMPLES];
 	}	
@@ -119,6 +134,7 @@ public class MaxPropRouter extends ActiveRouter {
 	public void changedConnection(Connection con) {
 		if (con.isUp()) { // new connection
 			this.costsForMessages = null; // invalidate old cost estimates
+			this.otherTuples = null;
 			
 			if (con.isInitiator(getHost())) {
 				/* initiator performs all the actions on behalf of the
@@ -186,6 +202,7 @@ public class MaxPropRouter extends ActiveRouter {
 	@Override
 	public Message messageTransferred(String id, DTNHost from) {
 		this.costsForMessages = null; // new message -> invalidate costs
+		this.otherTuples = null;
 		Message m = super.messageTransferred(id, from);
 		/* was this node the final recipient of the message? */
 		if (isDeliveredMessage(m)) {
@@ -306,8 +323,9 @@ public class MaxPropRouter extends ActiveRouter {
 				toSet.add(m.getTo().getAddress());
 			}
 						
-			this.costsForMessages = dijkstra.getCosts(fromIndex, toSet);
+			this.costsForMessages = costCache.getCosts(fromIndex, toSet);
 			this.lastCostFrom = from; // store source host for caching checks
+			this.costsBufferVersion = getBufferVersion();
 		}
 		
 		if (costsForMessages.containsKey(to.getAddress())) {
@@ -325,40 +343,198 @@ public class MaxPropRouter extends ActiveRouter {
 	 * @return The return value of {@link #tryMessagesForConnected(List)}
 	 */
 	private Tuple<Message, Connection> tryOtherMessages() {
+		List<Connection> connections = getConnections();
+		List<NeighbourState> neighbours = 
+			new ArrayList<NeighbourState>(connections.size());
+		boolean sameNeighbours = this.neighbourStates != null &&
+			this.neighbourStates.size() == connections.size();
+		
+		/* for all connected hosts that are not transferring at the moment,
+		 * collect all the messages that could be sent (unless nothing that 
+		 * affects them has changed since the last update) */
+		for (int i = 0, n = connections.size(); i < n; i++) {
+			Connection con = connections.get(i);
+			NeighbourState state = getNeighbourState(con);
+			if (state == null) {
+				state = new NeighbourState(con);
+			}
+			if (sameNeighbours && state != this.neighbourStates.get(i)) {
+				sameNeighbours = false;
+			}
+			neighbours.add(state);
+		}
+		this.neighbourStates = neighbours;
+		this.neighbourStatesVersion = getBufferVersion();
+		
+		/* the order of the tuples depends also on the message buffer and
+		 * the transfer average (the threshold) */
+		boolean sameBuffer = this.otherTuples != null &&
+			this.otherTuplesBufferVersion == getBufferVersion() &&
+			this.otherTuplesAvgBytes == this.avgTransferredBytes;
+		
+		if (sameBuffer && sameNeighbours) {
+			/* nothing that affects the tuples or their order has changed */
+			return tryMessagesForConnected(this.otherTuples);
+		}
+		
 		List<Tuple<Message, Connection>> messages = 
 			new ArrayList<Tuple<Message, Connection>>(); 
+		for (NeighbourState state : neighbours) {
+			messages.addAll(state.tuples);
+		}
+		
+		if (sameBuffer && hasSameTuples(messages, this.otherCandidates)) {
+			/* the changes of the connected hosts didn't change the tuples */
+			return tryMessagesForConnected(this.otherTuples);
+		}
+		
+		/* cached costs that were calculated before the latest changes in the
+		 * buffer may give a different order than fresh ones would; the order
+		 * can be reused only if it wasn't sorted using such costs */
+		boolean costsValid = this.costsForMessages == null || 
+			this.costsBufferVersion == getBufferVersion();
+		List<Tuple<Message, Connection>> sorted = messages;
+		
+		if (costsValid) {
+			this.otherCandidates = messages;
+			sorted = new ArrayList<Tuple<Message, Connection>>(messages);
+		}
+		
+		if (sorted.size() > 1) {
+			/* sort the message-connection tuples according to the criteria
+			 * defined in MaxPropTupleComparator (a single tuple needs no
+			 * threshold) */ 
+			Collections.sort(sorted, 
+					new MaxPropTupleComparator(calcThreshold()));
+		}
+		
+		if (costsValid) {
+			this.otherTuples = sorted;
+			this.otherTuplesBufferVersion = getBufferVersion();
+			this.otherTuplesAvgBytes = this.avgTransferredBytes;
+		}
+		else {
+			this.otherTuples = null;
+		}
+		
+		if (sorted.size() == 0) {
+			return null;
+		}
+		
+		return tryMessagesForConnected(sorted);	
+	}
 	
-		Collection<Message> msgCollection = getMessageCollection();
+	/**
+	 * Returns the state of the last update for a connection if the host on 
+	 * the other end of it and the message buffer of this host haven't changed
+	 * since the state was created.
+	 * @param con The connection
+	 * @return The still valid state or null if there was no valid state
+	 */
+	private NeighbourState getNeighbourState(Connection con) {
+		if (this.neighbourStates == null || 
+				this.neighbourStatesVersion != getBufferVersion()) {
+			return null;
+		}
 		
-		/* for all connected hosts that are not transferring at the moment,
-		 * collect all the messages that could be sent */
-		for (Connection con : getConnections()) {
-			DTNHost other = con.getOtherNode(getHost());
-			MaxPropRouter othRouter = (MaxPropRouter)other.getRouter();
+		for (NeighbourState state : this.neighbourStates) {
+			if (state.con == con) {
+				return state.isValid() ? state : null;
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Returns true if the two lists have the same messages and connections
+	 * in the same order.
+	 * @param list1 The first list
+	 * @param list2 The second list
+	 * @return true if the lists have the same tuples, false if not
+	 */
+	private boolean hasSameTuples(List<Tuple<Message, Connection>> list1,
+			List<Tuple<Message, Connection>> list2) {
+		if (list1.size() != list2.size()) {
+			return false;
+		}
+		
+		for (int i = 0, n = list1.size(); i < n; i++) {
+			Tuple<Message, Connection> t1 = list1.get(i);
+			Tuple<Message, Connection> t2 = list2.get(i);
+			if (t1.getKey() != t2.getKey() || t1.getValue() != t2.getValue()) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * A connected host with the message-connection tuples collected for it
+	 * and the state of the host the tuples depend on
+	 */
+	private class NeighbourState {
+		/** the connection to the host */
+		private Connection con;
+		/** the host on the other end of the connection */
+		private DTNHost host;
+		/** the host's message buffer version */
+		private long bufferVersion;
+		/** was the host transferring */
+		private boolean transferring;
+		/** the tuples of the messages that could be sent to the host */
+		private List<Tuple<Message, Connection>> tuples;
+		
+		/**
+		 * Constructor. Stores the current state of a connected host and 
+		 * collects the messages that could be sent to it.
+		 * @param con The connection to the host
+		 */
+		public NeighbourState(Connection con) {
+			this.con = con;
+			this.host = con.getOtherNode(getHost());
+			MaxPropRouter othRouter = (MaxPropRouter)host.getRouter();
+			this.bufferVersion = othRouter.getBufferVersion();
+			this.transferring = othRouter.isTransferring();
+			this.tuples = new ArrayList<Tuple<Message, Connection>>();
 			
-			if (othRouter.isTransferring()) {
-				continue; // skip hosts that are transferring
+			if (this.transferring) {
+				return; // skip hosts that are transferring
 			}
 			
-			for (Message m : msgCollection) {
+			for (Message m : getMessageCollection()) {
 				/* skip messages that the other host has or that have
 				 * passed the other host */
 				if (othRouter.hasMessage(m.getId()) ||
-						m.getHops().contains(other)) {
+						m.isOnPath(host)) {
 					continue; 
 				}
-				messages.add(new Tuple<Message, Connection>(m,con));
-			}			
+				this.tuples.add(new Tuple<Message, Connection>(m,con));
+			}
 		}
 		
-		if (messages.size() == 0) {
-			return null;
+		/**
+		 * Returns true if the connection is still between the same hosts and 
+		 * the host on the other end is in the same state as when this state 
+		 * was created
+		 * @return true if the state is still valid, false if not
+		 */
+		public boolean isValid() {
+			DTNHost other = con.getOtherNode(getHost());
+			if (other != this.host) {
+				return false; // pooled connection object was reused
+			}
+			
+			MaxPropRouter router = (MaxPropRouter)other.getRouter();
+			if (router.isTransferring() != this.transferring) {
+				return false;
+			}
+			
+			/* the messages of transferring hosts are not checked */
+			return this.transferring || 
+				router.getBufferVersion() == this.bufferVersion;
 		}
-		
-		/* sort the message-connection tuples according to the criteria
-		 * defined in MaxPropTupleComparator */ 
-		Collections.sort(messages, new MaxPropTupleComparator(calcThreshold()));
-		return tryMessagesForConnected(messages);	
 	}
 	
 	/**
@@ -14,7 +14,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import routing.maxprop.MaxPropDijkstra;
+import routing.maxprop.MaxPropCostCache;
 import routing.maxprop.MeetingProbabilitySet;
 import core.Connection;
 import core.DTNHost;
@@ -48,8 +48,8 @@ public class MaxPropRouterWithEstimation extends ActiveRouter {
 	/** meeting probabilities of all hosts from this host's point of view 
 	 * mapped using host's network address */
 	private Map<Integer, MeetingProbabilitySet> allProbs;
-	/** the cost-to-node calculator */
-	private MaxPropDijkstra dijkstra;	
+	/** the cost-to-node calculator (with cached results) */
+	private MaxPropCostCache costCache;	
 	/** IDs of the messages that are known to have reached the final dst */
 	private Set<String> ackedMessageIds;
 	/** mapping of the current costs for all messages. This should be set to
@@ -120,7 +120,7 @@ public class MaxPropRouterWithEstimation extends ActiveRouter {
 		this.probs = new MeetingProbabilitySet(
 				MeetingProbabilitySet.INFINITE_SET_SIZE, this.alpha);
 		this.allProbs = new HashMap<Integer, MeetingProbabilitySet>();
-		this.dijkstra = new MaxPropDijkstra(this.allProbs);
+		this.costCache = new MaxPropCostCache(this.allProbs);
 		this.ackedMessageIds = new HashSet<String>();
 		this.avgSamples = new int[BYTES_TRANSFERRED_AVG_SAMPLES];
 		initMeetings();
@@ -449,7 +449,7 @@ public class MaxPropRouterWithEstimation extends ActiveRouter {
 				toSet.add(m.getTo().getAddress());
 			}
 						
-			this.costsForMessages = dijkstra.getCosts(fromIndex, toSet);
+			this.costsForMessages = costCache.getCosts(fromIndex, toSet);
 			this.lastCostFrom = from; // store source host for caching checks
 		}
 		
@@ -487,7 +487,7 @@ public class MaxPropRouterWithEstimation extends ActiveRouter {
 				/* skip messages that the other host has or that have
 				 * passed the other host */
 				if (othRouter.hasMessage(m.getId()) ||
-						m.getHops().contains(other)) {
+						m.isOnPath(other)) {
 					continue; 
 				}
 				messages.add(new Tuple<Message, Connection>(m,con));
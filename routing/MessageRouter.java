@@ -15,6 +15,7 @@ import java.util.Random;
 import core.Application;
 import core.Connection;
 import core.DTNHost;
+import core.LongHashMap;
 import core.Message;
 import core.MessageListener;
 import core.Settings;
@@ -68,16 +69,20 @@ public abstract class MessageRouter {
 	public static final int DENIED_UNSPECIFIED = -999;
 	
 	private List<MessageListener> mListeners;
-	/** The messages being transferred with msgID_hostName keys */
-	private HashMap<String, Message> incomingMessages;
+	/** The messages being transferred with (message handle, host address)
+	 * keys (see {@link #incomingKey(int, DTNHost)}) */
+	private LongHashMap<Message> incomingMessages;
 	/** The messages this router is carrying */
 	private HashMap<String, Message> messages; 
-	/** The messages this router has received as the final recipient */
-	private HashMap<String, Message> deliveredMessages;
+	/** The messages this router has received as the final recipient (with
+	 * message handle keys) */
+	private LongHashMap<Message> deliveredMessages;
 	/** Host where this router belongs to */
 	private DTNHost host;
 	/** size of the buffer */
 	private int bufferSize;
+	/** sum of the sizes of the messages in the buffer */
+	private int occupancy;
 	/** TTL for all messages */
 	protected int msgTtl;
 	/** Queue mode for sending messages */
@@ -124,9 +129,10 @@ public abstract class MessageRouter {
 	 * @param mListeners The message listeners
 	 */
 	public void init(DTNHost host, List<MessageListener> mListeners) {
-		this.incomingMessages = new HashMap<String, Message>();
+		this.incomingMessages = new LongHashMap<Message>();
 		this.messages = new HashMap<String, Message>();
-		this.deliveredMessages = new HashMap<String, Message>();
+		this.deliveredMessages = new LongHashMap<Message>();
+		this.occupancy = 0;
 		this.mListeners = mListeners;
 		this.host = host;
 	}
@@ -165,7 +171,16 @@ public abstract class MessageRouter {
 	 * Informs the router about change in connections state.
 	 * @param con The connection that changed
 	 */
-	public abstract void changedConnection(Connection con);	
+	public abstract void changedConnection(Connection con);
+
+	/**
+	 * Informs the router that a new connection has come up. Called before 
+	 * {@link #changedConnection(Connection)}. This version doesn't do 
+	 * anything but subclasses may want to override this.
+	 * @param con The new connection
+	 */
+	public void connectionUp(Connection con) {
+	}	
 	
 	/**
 	 * Returns a message by ID.
@@ -194,7 +209,7 @@ public abstract class MessageRouter {
 	 * this host as the final recipient.
 	 */
 	protected boolean isDeliveredMessage(Message m) {
-		return (this.deliveredMessages.containsKey(m.getId()));
+		return (this.deliveredMessages.containsKey(m.getHandle()));
 	}
 	
 	/**
@@ -233,17 +248,27 @@ public abstract class MessageRouter {
 	 * size isn't defined)
 	 */
 	public int getFreeBufferSize() {
-		int occupancy = 0;
-		
 		if (this.getBufferSize() == Integer.MAX_VALUE) {
 			return Integer.MAX_VALUE;
 		}
 		
+		assert this.occupancy == countOccupancy() : "Buffer occupancy " + 
+			this.occupancy + " of " + getHost() + " doesn't match the " +
+			"messages' total size " + countOccupancy();
+		
+		return this.getBufferSize() - this.occupancy;
+	}
+	
+	/**
+	 * Counts the sum of the sizes of the messages in the buffer
+	 * @return The sum of the sizes of the messages in the buffer
+	 */
+	private int countOccupancy() {
+		int total = 0;
 		for (Message m : getMessageCollection()) {
-			occupancy += m.getSize();
+			total += m.getSize();
 		}
-		
-		return this.getBufferSize() - occupancy;
+		return total;
 	}
 	
 	/**
@@ -343,7 +368,10 @@ public abstract class MessageRouter {
 			addToMessages(aMessage, false);
 		}
 		else if (isFirstDelivery) {
-			this.deliveredMessages.put(id, aMessage);
+			this.deliveredMessages.put(incoming.getHandle(), aMessage);
+		}
+		if (isFirstDelivery) {
+			DeliveredOracle.setDelivered(aMessage);
 		}
 		
 		for (MessageListener ml : this.mListeners) {
@@ -361,7 +389,18 @@ public abstract class MessageRouter {
 	 * @param from Who the message was from (previous hop).
 	 */
 	protected void putToIncomingBuffer(Message m, DTNHost from) {
-		this.incomingMessages.put(m.getId() + "_" + from.toString(), m);
+		this.incomingMessages.put(incomingKey(m.getHandle(), from), m);
+	}
+
+	/**
+	 * Returns the key of a message in the incoming messages buffer
+	 * @param handle Handle of the message's ID (see 
+	 * {@link Message#getHandle()})
+	 * @param from Who the message is from (previous hop)
+	 * @return The key for the message and host
+	 */
+	private static long incomingKey(int handle, DTNHost from) {
+		return ((long)handle << 32) | (from.getAddress() & 0xffffffffL);
 	}
 	
 	/**
@@ -372,7 +411,11 @@ public abstract class MessageRouter {
 	 * @return The found message or null if such message wasn't found
 	 */
 	protected Message removeFromIncomingBuffer(String id, DTNHost from) {
-		return this.incomingMessages.remove(id + "_" + from.toString());
+		int handle = Message.getHandle(id);
+		if (handle < 0) {
+			return null;
+		}
+		return this.incomingMessages.remove(incomingKey(handle, from));
 	}
 	
 	/**
@@ -382,7 +425,12 @@ public abstract class MessageRouter {
 	 * @return True if such message is incoming right now
 	 */
 	protected boolean isIncomingMessage(String id) {
-		return this.incomingMessages.containsKey(id);
+		for (Message m : this.incomingMessages.values()) {
+			if (m.getId().equals(id)) {
+				return true;
+			}
+		}
+		return false;
 	}
 	
 	/**
@@ -393,7 +441,11 @@ public abstract class MessageRouter {
 	 * message, if false, nothing is informed.
 	 */
 	protected void addToMessages(Message m, boolean newMessage) {
-		this.messages.put(m.getId(), m);
+		Message old = this.messages.put(m.getId(), m);
+		if (old != null) {
+			this.occupancy -= old.getSize();
+		}
+		this.occupancy += m.getSize();
 		
 		if (newMessage) {
 			for (MessageListener ml : this.mListeners) {
@@ -409,6 +461,9 @@ public abstract class MessageRouter {
 	 */
 	protected Message removeFromMessages(String id) {
 		Message m = this.messages.remove(id);
+		if (m != null) {
+			this.occupancy -= m.getSize();
+		}
 		return m;
 	}
 	
@@ -8,16 +8,16 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
+import routing.drop.DropPolicy;
+import routing.drop.LpsDropPolicy;
+import routing.prophet.PredictabilityTable;
 import core.Connection;
 import core.DTNHost;
 import core.Message;
 import core.Settings;
 import core.SettingsError;
-import core.SimClock;
 import core.Tuple;
 
 /**
@@ -82,11 +82,23 @@ public class ProphetRouter extends ActiveRouter {
     /**
      * delivery predictabilities
      */
-    private Map<DTNHost, Double> preds;
+    private PredictabilityTable preds;
     /**
-     * last delivery predictability update (sim)time
+     * the message-connection tuples of the last update in sending order
      */
-    private double lastAgeUpdate;
+    private List<Tuple<Message, Connection>> otherTuples;
+    /**
+     * the connected hosts and their states in the last update
+     */
+    private List<NeighbourState> neighbourStates;
+    /**
+     * message buffer version when the tuples were collected
+     */
+    private long otherTuplesBufferVersion;
+    /**
+     * predictability table version when the tuples were collected
+     */
+    private long otherTuplesPredsVersion;
 
     /**
      * Constructor. Creates a new message router based on the settings in the
@@ -131,10 +143,10 @@ public class ProphetRouter extends ActiveRouter {
     }
 
     /**
-     * Initializes predictability hash
+     * Initializes predictability table
      */
     private void initPreds() {
-        this.preds = new HashMap<DTNHost, Double>();
+        this.preds = new PredictabilityTable(GAMMA, secondsInTimeUnit);
     }
 
     @Override
@@ -166,12 +178,7 @@ public class ProphetRouter extends ActiveRouter {
      * @return the current P value
      */
     public double getPredFor(DTNHost host) {
-        ageDeliveryPreds(); // make sure preds are updated before getting
-        if (preds.containsKey(host)) {
-            return preds.get(host);
-        } else {
-            return 0;
-        }
+        return preds.get(host); // the entry is aged when it's read
     }
 
     /**
@@ -186,51 +193,19 @@ public class ProphetRouter extends ActiveRouter {
                 + " with other routers of same type";
 
         double pForHost = getPredFor(host); // P(a,b)
-        Map<DTNHost, Double> othersPreds
-                = ((ProphetRouter) otherRouter).getDeliveryPreds();
+        PredictabilityTable othersPreds = ((ProphetRouter) otherRouter).preds;
 
-        for (Map.Entry<DTNHost, Double> e : othersPreds.entrySet()) {
-            if (e.getKey() == getHost()) {
+        for (int i = 0, n = othersPreds.size(); i < n; i++) {
+            DTNHost c = othersPreds.getHost(i);
+            if (c == getHost()) {
                 continue; // don't add yourself
             }
 
-            double pOld = getPredFor(e.getKey()); // P(a,c)_old
-            double pNew = pOld + (1 - pOld) * pForHost * e.getValue() * beta;
-            preds.put(e.getKey(), pNew);
-        }
-    }
-
-    /**
-     * Ages all entries in the delivery predictions.
-     * <CODE>P(a,b) = P(a,b)_old * (GAMMA ^ k)</CODE>, where k is number of time
-     * units that have elapsed since the last time the metric was aged.
-     *
-     * @see #SECONDS_IN_UNIT_S
-     */
-    private void ageDeliveryPreds() {
-        double timeDiff = (SimClock.getTime() - this.lastAgeUpdate)
-                / secondsInTimeUnit;
-
-        if (timeDiff == 0) {
-            return;
-        }
-
-        double mult = Math.pow(GAMMA, timeDiff);
-        for (Map.Entry<DTNHost, Double> e : preds.entrySet()) {
-            e.setValue(e.getValue() * mult);
+            double pOld = getPredFor(c); // P(a,c)_old
+            double pNew = pOld + (1 - pOld) * pForHost 
+                    * othersPreds.getValue(i) * beta;
+            preds.put(c, pNew);
         }
-
-        this.lastAgeUpdate = SimClock.getTime();
-    }
-
-    /**
-     * Returns a map of this router's delivery predictions
-     *
-     * @return a map of this router's delivery predictions
-     */
-    private Map<DTNHost, Double> getDeliveryPreds() {
-        ageDeliveryPreds(); // make sure the aging is done
-        return this.preds;
     }
 
     @Override
@@ -250,21 +225,34 @@ public class ProphetRouter extends ActiveRouter {
 
     /**
      * Tries to send all other messages to all connected hosts ordered by their
-     * delivery probability
+     * delivery probability. The tuples (and their order) of the last update
+     * are reused if neither this host's nor the connected hosts' messages or
+     * delivery predictabilities have changed since. Aging scales all the
+     * predictabilities equally so it can't change the tuples (apart from 
+     * rounding).
      *
      * @return The return value of {@link #tryMessagesForConnected(List)}
      */
     private Tuple<Message, Connection> tryOtherMessages() {
-        List<Tuple<Message, Connection>> messages
-                = new ArrayList<Tuple<Message, Connection>>();
+        List<Connection> connections = getConnections();
+
+        if (hasSameNeighbours(connections)) {
+            /* nothing that affects the tuples or their order has changed */
+            return tryMessagesForConnected(this.otherTuples);
+        }
+
+        List<PredTuple> messages = new ArrayList<PredTuple>();
+        List<NeighbourState> neighbours =
+                new ArrayList<NeighbourState>(connections.size());
 
         Collection<Message> msgCollection = getMessageCollection();
 
         /* for all connected hosts collect all messages that have a higher
          probability of delivery by the other host */
-        for (Connection con : getConnections()) {
+        for (Connection con : connections) {
             DTNHost other = con.getOtherNode(getHost());
             ProphetRouter othRouter = (ProphetRouter) other.getRouter();
+            neighbours.add(new NeighbourState(con));
 
             if (othRouter.isTransferring()) {
                 continue; // skip hosts that are transferring
@@ -274,20 +262,118 @@ public class ProphetRouter extends ActiveRouter {
                 if (othRouter.hasMessage(m.getId())) {
                     continue; // skip messages that the other one has
                 }
-                if (othRouter.getPredFor(m.getTo()) > getPredFor(m.getTo())) {
+                double othPred = othRouter.getPredFor(m.getTo());
+                if (othPred > getPredFor(m.getTo())) {
                     // the other node has higher probability of delivery
-                    messages.add(new Tuple<Message, Connection>(m, con));
+                    messages.add(new PredTuple(m, con, othPred));
                 }
             }
         }
 
-        if (messages.size() == 0) {
-            return null;
+        Collections.sort(messages, new TupleComparator());
+
+        this.otherTuples = new ArrayList<Tuple<Message, Connection>>(messages);
+        this.neighbourStates = neighbours;
+        this.otherTuplesBufferVersion = getBufferVersion();
+        this.otherTuplesPredsVersion = preds.getVersion();
+
+        // try to send messages
+        return tryMessagesForConnected(this.otherTuples);
+    }
+
+    /**
+     * Returns true if the tuples of the last update are still valid for the
+     * given connections, i.e., the message buffer and the delivery 
+     * predictabilities of this host haven't changed and the connections lead
+     * to the same hosts in the same order and in the same state.
+     *
+     * @param connections The current connections
+     * @return true if the tuples can be reused, false if not
+     */
+    private boolean hasSameNeighbours(List<Connection> connections) {
+        if (this.otherTuples == null ||
+                this.otherTuplesBufferVersion != getBufferVersion() ||
+                this.otherTuplesPredsVersion != preds.getVersion() ||
+                this.neighbourStates.size() != connections.size()) {
+            return false;
         }
 
-        Collections.sort(messages, new TupleComparator());
+        for (int i = 0, n = connections.size(); i < n; i++) {
+            if (!this.neighbourStates.get(i).isValid(connections.get(i))) {
+                return false;
+            }
+        }
 
-        return tryMessagesForConnected(messages);	// try to send messages
+        return true;
+    }
+
+    /**
+     * A connected host and the state of the host the collected 
+     * message-connection tuples depend on
+     */
+    private class NeighbourState {
+        /** the connection to the host */
+        private Connection con;
+        /** the host on the other end of the connection */
+        private DTNHost host;
+        /** the host's message buffer version */
+        private long bufferVersion;
+        /** the host's predictability table version */
+        private long predsVersion;
+        /** was the host transferring */
+        private boolean transferring;
+
+        /**
+         * Constructor. Stores the current state of a connected host.
+         * @param con The connection to the host
+         */
+        public NeighbourState(Connection con) {
+            this.con = con;
+            this.host = con.getOtherNode(getHost());
+            ProphetRouter othRouter = (ProphetRouter) host.getRouter();
+            this.bufferVersion = othRouter.getBufferVersion();
+            this.predsVersion = othRouter.preds.getVersion();
+            this.transferring = othRouter.isTransferring();
+        }
+
+        /**
+         * Returns true if the given connection is the same connection to the
+         * same host and the host is in the same state as when this state
+         * was created
+         * @param con The current connection
+         * @return true if the state is still valid, false if not
+         */
+        public boolean isValid(Connection con) {
+            if (con != this.con || con.getOtherNode(getHost()) != this.host) {
+                return false; // pooled connection object was reused
+            }
+
+            ProphetRouter router = (ProphetRouter) host.getRouter();
+            if (router.isTransferring() != this.transferring) {
+                return false;
+            }
+
+            /* the messages of transferring hosts are not checked */
+            return this.transferring ||
+                    (router.getBufferVersion() == this.bufferVersion &&
+                    router.preds.getVersion() == this.predsVersion);
+        }
+    }
+
+    /**
+     * Message-Connection-Tuple with the delivery probability of the message
+     * by the host on the other side of the connection. The probability is
+     * looked up once when the tuple is created instead of in every 
+     * comparison when the tuples are sorted.
+     */
+    private static class PredTuple extends Tuple<Message, Connection> {
+        /** the other host's delivery probability for the message */
+        private final double pred;
+
+        public PredTuple(Message m, Connection con, double pred) {
+            super(m, con);
+            this.pred = pred;
+        }
     }
 
     /**
@@ -295,18 +381,13 @@ public class ProphetRouter extends ActiveRouter {
      * delivery probability by the host on the other side of the connection
      * (GRTRMax)
      */
-    private class TupleComparator implements Comparator<Tuple<Message, Connection>> {
+    private class TupleComparator implements Comparator<PredTuple> {
 
-        public int compare(Tuple<Message, Connection> tuple1,
-                Tuple<Message, Connection> tuple2) {
+        public int compare(PredTuple tuple1, PredTuple tuple2) {
             // delivery probability of tuple1's message with tuple1's connection
-            double p1 = ((ProphetRouter) tuple1.getValue().
-                    getOtherNode(getHost()).getRouter()).getPredFor(
-                            tuple1.getKey().getTo());
+            double p1 = tuple1.pred;
             // -"- tuple2...
-            double p2 = ((ProphetRouter) tuple2.getValue().
-                    getOtherNode(getHost()).getRouter()).getPredFor(
-                            tuple2.getKey().getTo());
+            double p2 = tuple2.pred;
 
             // bigger probability should come first
             if (p2 - p1 == 0) {
@@ -322,14 +403,13 @@ public class ProphetRouter extends ActiveRouter {
 
     @Override
     public RoutingInfo getRoutingInfo() {
-        ageDeliveryPreds();
         RoutingInfo top = super.getRoutingInfo();
         RoutingInfo ri = new RoutingInfo(preds.size()
                 + " delivery prediction(s)");
 
-        for (Map.Entry<DTNHost, Double> e : preds.entrySet()) {
-            DTNHost host = e.getKey();
-            Double value = e.getValue();
+        for (int i = 0, n = preds.size(); i < n; i++) {
+            DTNHost host = preds.getHost(i);
+            double value = preds.getValue(i);
 
             ri.addMoreInfo(new RoutingInfo(String.format("%s : %.6f",
                     host, value)));
@@ -345,59 +425,11 @@ public class ProphetRouter extends ActiveRouter {
         return r;
     }
 
-    protected boolean makeRoomForMessage(int size) {
-        if (this.getDropQueueMode() == ActiveRouter.DROP_MODE_LPS) {
-
-            if (size > this.getBufferSize()) {
-                return false; // message too big for the buffer
-            }
-
-            int freeBuffer = this.getFreeBufferSize();
-            /* delete messages from the buffer until there's enough space */
-            boolean excludeMsgBeingSent = true;
-            while (freeBuffer < size) {
-                Message m = null;
-
-                m = this.getLPSMessage(excludeMsgBeingSent);
-                if (m == null) {
-                    return false;
-                }
-
-                deleteMessage(m.getId(), true);
-                freeBuffer += m.getSize();
-            }
-            return true;
-
-        } else {
-            return super.makeRoomForMessage(size);
-        }
-    }
-
-    protected Message getLPSMessage(boolean excludeMsgBeingSent) {
-        Collection<Message> messages = this.getMessageCollection();
-        Message lpsMessage = null;
-
-        for (Message m : messages) {
-            if (excludeMsgBeingSent && isSending(m.getId())) {
-                continue; // skip the message(s) that router is sending
-            }
-
-            if (m.getGlobalNumberOfReplicas() > lps_copies) {
-                if (lpsMessage == null) {
-                    lpsMessage = m;
-                } else if (this.getPredFor(m.getTo()) < this.getPredFor(lpsMessage.getTo())) {
-                    lpsMessage = m;
-                }
-            }
-        }
-
-        /* If no message has a number of copies greater than lps_copies,
-         the oldest message is dropped from the buffer.
-         */
-        if (lpsMessage == null) {
-            lpsMessage = getOldestMessage(excludeMsgBeingSent);
+    @Override
+    protected DropPolicy createDropPolicy(int mode) {
+        if (mode == DROP_MODE_LPS) {
+            return new LpsDropPolicy(this, lps_copies);
         }
-
-        return lpsMessage;
+        return super.createDropPolicy(mode);
     }
 }
@@ -31,6 +31,10 @@ public class SprayAndWaitRouter extends ActiveRouter {
 	
 	protected int initialNrofCopies;
 	protected boolean isBinary;
+	/** messages with copies left (or null if the list must be recreated) */
+	private List<Message> copiesLeft;
+	/** message buffer version when the copies left list was created */
+	private long copiesLeftVersion;
 
 	public SprayAndWaitRouter(Settings s) {
 		super(s);
@@ -97,13 +101,23 @@ public class SprayAndWaitRouter extends ActiveRouter {
 			return;
 		}
 		
-		/* create a list of SAWMessages that have copies left to distribute */
-		@SuppressWarnings(value = "unchecked")
-		List<Message> copiesLeft = sortByQueueMode(getMessagesWithCopiesLeft());
+		/* create a list of SAWMessages that have copies left to distribute
+		 * if the buffer or the number of copies have changed */
+		if (this.copiesLeft == null || 
+				this.copiesLeftVersion != getBufferVersion()) {
+			this.copiesLeft = getMessagesWithCopiesLeft();
+			this.copiesLeftVersion = getBufferVersion();
+		}
 		
-		if (copiesLeft.size() > 0) {
+		if (this.copiesLeft.size() > 0) {
+			/* the queue order is decided again on every update (random
+			 * order depends on the time) */
+			@SuppressWarnings(value = "unchecked")
+			List<Message> toSend = sortByQueueMode(
+					new ArrayList<Message>(this.copiesLeft));
+			
 			/* try to send those messages */
-			this.tryMessagesToConnections(copiesLeft, getConnections());
+			this.tryMessagesToConnections(toSend, getConnections());
 		}
 	}
 	
@@ -147,6 +161,7 @@ public class SprayAndWaitRouter extends ActiveRouter {
 		}
 		
 		/* reduce the amount of copies left */
+		this.copiesLeft = null;
 		nrofCopies = (Integer)msg.getProperty(MSG_COUNT_PROPERTY);
 		if (isBinary) { 
 			nrofCopies /= 2;
@@ -0,0 +1,91 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package routing.drop;
+
+import routing.ActiveRouter;
+import core.Message;
+
+/**
+ * Superclass of message drop policies. A drop policy selects the message
+ * that is dropped when a router's buffer is full. Every router has a drop
+ * policy instance of its own and informs it about the messages that are 
+ * added to or removed from the buffer, and about messages whose properties
+ * that affect the selection may have changed, so that the policy can keep 
+ * its bookkeeping up to date instead of going through the whole buffer for 
+ * every dropped message.
+ */
+public abstract class DropPolicy {
+	/** the router whose messages are dropped */
+	protected ActiveRouter router;
+	/** metrics shared by all the policies of this type */
+	protected DropPolicyMetrics metrics;
+
+	/**
+	 * Constructor.
+	 * @param router The router whose messages are dropped
+	 */
+	public DropPolicy(ActiveRouter router) {
+		this.router = router;
+		this.metrics = DropPolicyMetrics.getMetrics(toString());
+	}
+
+	/**
+	 * Returns the metrics of this type of policies
+	 * @return the metrics of this type of policies
+	 */
+	public DropPolicyMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	/**
+	 * Called when a message is added to the buffer of the router. This
+	 * implementation does nothing.
+	 * @param m The message that was added
+	 */
+	public void messageAdded(Message m) { }
+
+	/**
+	 * Called when a message is removed from the buffer of the router. This
+	 * implementation does nothing.
+	 * @param m The message that was removed
+	 */
+	public void messageRemoved(Message m) { }
+
+	/**
+	 * Called when some property of a buffered message (e.g., the time it 
+	 * was forwarded or the number of its replicas) was changed. This 
+	 * implementation does nothing.
+	 * @param m The message that was changed
+	 */
+	public void messageUpdated(Message m) { }
+
+	/**
+	 * Selects the message that should be dropped next. Implementations 
+	 * should record the number of messages they examine in the 
+	 * {@link #metrics}.
+	 * @param excludeMsgBeingSent If true, excludes message(s) that are 
+	 * being sent
+	 * @return The message to drop or null if this policy doesn't select any
+	 * message
+	 * @see #dropsOldestByDefault()
+	 */
+	public abstract Message selectMessage(boolean excludeMsgBeingSent);
+	/**
+	 * Returns true if the oldest message should be dropped when this policy
+	 * doesn't select any message. This implementation returns true.
+	 * @return true if the oldest message should be dropped by default
+	 */
+	public boolean dropsOldestByDefault() {
+		return true;
+	}
+
+	/**
+	 * Returns the name of the policy (the class name without "DropPolicy")
+	 * @return the name of the policy
+	 */
+	public String toString() {
+		return getClass().getSimpleName().replace("DropPolicy", "");
+	}
+}
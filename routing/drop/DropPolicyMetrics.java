@@ -0,0 +1,136 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package routing.drop;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+import core.DTNSim;
+
+/**
+ * Counters of the work done by all the drop policies of the same type: how
+ * many times a message to drop was selected, how many messages were 
+ * dropped, how many messages were examined (scan cost) and how much time 
+ * was spent in selecting the messages.
+ */
+public class DropPolicyMetrics {
+	/** metrics of all the policies by policy name */
+	private static Map<String, DropPolicyMetrics> allMetrics;
+
+	private String policyName;
+	private long nrofSelections;
+	private long nrofDrops;
+	private long nrofScanned;
+	private long selectionNanos;
+
+	static {
+		DTNSim.registerForReset(DropPolicyMetrics.class.getCanonicalName());
+		reset();
+	}
+
+	/**
+	 * Constructor.
+	 * @param policyName Name of the policy
+	 */
+	private DropPolicyMetrics(String policyName) {
+		this.policyName = policyName;
+	}
+
+	/**
+	 * Returns the metrics of a drop policy (type). The metrics are created
+	 * if they don't exist yet.
+	 * @param policyName Name of the policy
+	 * @return the metrics of the policy
+	 */
+	public static DropPolicyMetrics getMetrics(String policyName) {
+		DropPolicyMetrics m = allMetrics.get(policyName);
+		if (m == null) {
+			m = new DropPolicyMetrics(policyName);
+			allMetrics.put(policyName, m);
+		}
+		return m;
+	}
+
+	/**
+	 * Returns the metrics of all the policies that have been used, ordered by
+	 * the policy names
+	 * @return the metrics of all the policies
+	 */
+	public static Collection<DropPolicyMetrics> getAllMetrics() {
+		return allMetrics.values();
+	}
+
+	/**
+	 * Resets all metrics
+	 */
+	public static void reset() {
+		allMetrics = new TreeMap<String, DropPolicyMetrics>();
+	}
+
+	/**
+	 * Records a selection of the message to drop
+	 * @param nanos How long the selection took (nanoseconds)
+	 */
+	public void addSelection(long nanos) {
+		this.nrofSelections++;
+		this.selectionNanos += nanos;
+	}
+
+	/**
+	 * Records a dropped message
+	 */
+	public void addDrop() {
+		this.nrofDrops++;
+	}
+
+	/**
+	 * Records examined messages
+	 * @param count How many messages were examined
+	 */
+	public void addScanned(int count) {
+		this.nrofScanned += count;
+	}
+
+	/**
+	 * Returns the name of the policy
+	 * @return the name of the policy
+	 */
+	public String getPolicyName() {
+		return this.policyName;
+	}
+
+	/**
+	 * Returns how many times a message to drop has been selected
+	 * @return the number of selections
+	 */
+	public long getNrofSelections() {
+		return this.nrofSelections;
+	}
+
+	/**
+	 * Returns how many messages have been dropped
+	 * @return the number of dropped messages
+	 */
+	public long getNrofDrops() {
+		return this.nrofDrops;
+	}
+
+	/**
+	 * Returns how many messages have been examined in the selections
+	 * @return the number of examined messages
+	 */
+	public long getNrofScanned() {
+		return this.nrofScanned;
+	}
+
+	/**
+	 * Returns the total time spent in the selections
+	 * @return the total time (nanoseconds)
+	 */
+	public long getSelectionNanos() {
+		return this.selectionNanos;
+	}
+}
@@ -0,0 +1,101 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package routing.drop;
+
+import java.lang.reflect.Constructor;
+
+import routing.ActiveRouter;
+import core.SettingsError;
+
+/**
+ * Registry of the drop policies. The policies that are built in 
+ * {@link ActiveRouter} (and its subclasses) are known by the names of their
+ * drop queue modes (e.g., "FIFO" or "LPS"). Other policies are looked up 
+ * by class name: either the name without the "DropPolicy" suffix of a 
+ * class in this package, or a fully qualified class name. Such classes must
+ * extend {@link DropPolicy} and have a public constructor with a single 
+ * {@link ActiveRouter} parameter.
+ */
+public class DropPolicyRegistry {
+	/** package of the drop policies ({@value}) */
+	public static final String POLICY_PACKAGE = "routing.drop.";
+	/** suffix of the drop policy class names ({@value}) */
+	public static final String POLICY_SUFFIX = "DropPolicy";
+
+	/** names of the built in drop queue modes (indexed by the mode) */
+	private static final String[] MODE_NAMES = {null, "RANDOM", "FIFO", 
+		"LRF", "LPS", "MOFO", "MDMF"};
+
+	/**
+	 * Returns the drop queue mode of a built in policy
+	 * @param name Name of the policy (case insensitive)
+	 * @return The drop queue mode (one of ActiveRouter's DROP_MODE_* values)
+	 * or -1 if the policy isn't built in
+	 */
+	public static int getMode(String name) {
+		for (int i=1; i<MODE_NAMES.length; i++) {
+			if (MODE_NAMES[i].equalsIgnoreCase(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the name of a built in drop queue mode
+	 * @param mode The drop queue mode
+	 * @return The name of the mode or null if the mode is unknown
+	 */
+	public static String getName(int mode) {
+		if (mode < 1 || mode >= MODE_NAMES.length) {
+			return null;
+		}
+		return MODE_NAMES[mode];
+	}
+
+	/**
+	 * Returns the class of a drop policy that isn't built in
+	 * @param name Name of the policy
+	 * @return The class of the policy
+	 * @throws SettingsError if no suitable class was found
+	 */
+	public static Class<? extends DropPolicy> getPolicyClass(String name) {
+		Class<?> c;
+		try {
+			c = Class.forName(name.contains(".") ? name : 
+				POLICY_PACKAGE + name + POLICY_SUFFIX);
+		} catch (ClassNotFoundException e) {
+			throw new SettingsError("Unknown drop policy '" + name + "'");
+		}
+
+		if (!DropPolicy.class.isAssignableFrom(c)) {
+			throw new SettingsError("Class " + c.getName() + 
+					" is not a drop policy");
+		}
+		return c.asSubclass(DropPolicy.class);
+	}
+
+	/**
+	 * Creates a new drop policy that isn't built in
+	 * @param name Name of the policy
+	 * @param router The router whose messages the policy drops
+	 * @return The new policy
+	 * @throws SettingsError if the policy couldn't be created
+	 */
+	public static DropPolicy createPolicy(String name, ActiveRouter router) {
+		Class<? extends DropPolicy> c = getPolicyClass(name);
+		try {
+			Constructor<? extends DropPolicy> constructor = 
+				c.getConstructor(ActiveRouter.class);
+			return constructor.newInstance(router);
+		} catch (NoSuchMethodException e) {
+			throw new SettingsError("Drop policy " + c.getName() + 
+					" has no constructor for an ActiveRouter");
+		} catch (Exception e) {
+			throw new SettingsError("Can't create drop policy " + 
+					c.getName() + ": " + e);
+		}
+	}
+}
@@ -0,0 +1,25 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package routing.drop;
+
+import routing.ActiveRouter;
+import core.Message;
+
+/**
+ * First in, first out drop policy. Drops the oldest (by receive time) 
+ * message, i.e., leaves the selection to the router (see 
+ * {@link #dropsOldestByDefault()}).
+ */
+public class FifoDropPolicy extends DropPolicy {
+
+	public FifoDropPolicy(ActiveRouter router) {
+		super(router);
+	}
+
+	@Override
+	public Message selectMessage(boolean excludeMsgBeingSent) {
+		return null; // router drops the oldest message
+	}
+}
@@ -0,0 +1,67 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package routing.drop;
+
+import routing.ActiveRouter;
+import core.Message;
+
+/**
+ * Superclass of drop policies that drop the message with the smallest key 
+ * value. The keys are kept in a {@link MessageIndex} that is updated
+ * whenever the buffer or a message changes.
+ */
+public abstract class IndexedDropPolicy extends DropPolicy {
+	/** value returned by {@link #getKey(Message)} for messages that this 
+	 * policy never selects */
+	protected static final double NOT_SELECTABLE = Double.NaN;
+	/** the messages that can be selected, by their key */
+	private MessageIndex index;
+
+	/**
+	 * Constructor.
+	 * @param router The router whose messages are dropped
+	 * @param bufferOrderTies Should messages with equal keys be selected in 
+	 * the buffer iteration order (see {@link MessageIndex})
+	 */
+	public IndexedDropPolicy(ActiveRouter router, boolean bufferOrderTies) {
+		super(router);
+		this.index = new MessageIndex(bufferOrderTies, metrics);
+	}
+
+	/**
+	 * Returns the key of a message. The message with the smallest key is 
+	 * dropped first.
+	 * @param m The message
+	 * @return The key of the message or {@link #NOT_SELECTABLE} if the
+	 * message should not be selected by this policy
+	 */
+	protected abstract double getKey(Message m);
+
+	@Override
+	public void messageAdded(Message m) {
+		messageUpdated(m);
+	}
+
+	@Override
+	public void messageRemoved(Message m) {
+		this.index.remove(m);
+	}
+
+	@Override
+	public void messageUpdated(Message m) {
+		double key = getKey(m);
+		if (Double.isNaN(key)) {
+			this.index.remove(m);
+		}
+		else {
+			this.index.put(m, key);
+		}
+	}
+
+	@Override
+	public Message selectMessage(boolean excludeMsgBeingSent) {
+		return this.index.getFirst(router, excludeMsgBeingSent);
+	}
+}
@@ -0,0 +1,174 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package routing.drop;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import routing.ProphetRouter;
+import core.DTNHost;
+import core.Message;
+
+/**
+ * Least probable sometimes drop policy for PRoPHET routers. Of the messages
+ * that have more than the given number of (global) replicas, drops the one
+ * whose destination has the lowest delivery predictability. If no message 
+ * has enough replicas, the oldest message is dropped. The selectable 
+ * messages are grouped by their destination so that the predictability is
+ * looked up only once per destination.
+ */
+public class LpsDropPolicy extends DropPolicy {
+	/** how many replicas a message must have to be selectable */
+	private int lpsCopies;
+	/** the selectable messages by their IDs */
+	private Map<String, Message> selectable;
+	/** the selectable messages grouped by their destination */
+	private Map<DTNHost, List<Message>> byDestination;
+	/** the router as a PRoPHET router */
+	private ProphetRouter prophet;
+
+	/**
+	 * Constructor.
+	 * @param router The router whose messages are dropped
+	 * @param lpsCopies How many replicas a message must have (at least one 
+	 * more than this) before it can be selected
+	 */
+	public LpsDropPolicy(ProphetRouter router, int lpsCopies) {
+		super(router);
+		this.prophet = router;
+		this.lpsCopies = lpsCopies;
+		this.selectable = new HashMap<String, Message>();
+		this.byDestination = new HashMap<DTNHost, List<Message>>();
+	}
+
+	@Override
+	public void messageAdded(Message m) {
+		messageUpdated(m);
+	}
+
+	@Override
+	public void messageRemoved(Message m) {
+		if (this.selectable.remove(m.getId()) == null) {
+			return;
+		}
+		List<Message> msgs = this.byDestination.get(m.getTo());
+		msgs.remove(m);
+		if (msgs.isEmpty()) {
+			this.byDestination.remove(m.getTo());
+		}
+	}
+
+	@Override
+	public void messageUpdated(Message m) {
+		boolean isSelectable = m.getGlobalNumberOfReplicas() > lpsCopies;
+		if (isSelectable == this.selectable.containsKey(m.getId())) {
+			return;
+		}
+
+		if (!isSelectable) {
+			messageRemoved(m);
+			return;
+		}
+
+		this.selectable.put(m.getId(), m);
+		List<Message> msgs = this.byDestination.get(m.getTo());
+		if (msgs == null) {
+			msgs = new ArrayList<Message>();
+			this.byDestination.put(m.getTo(), msgs);
+		}
+		msgs.add(m);
+	}
+
+	@Override
+	public Message selectMessage(boolean excludeMsgBeingSent) {
+		Message candidate = null;
+		int nrofCandidates = 0;
+
+		/* predictabilities are compared (and aged) only if there are more
+		 * than one candidates */
+		for (Message m : this.selectable.values()) {
+			metrics.addScanned(1);
+			if (canDrop(m, excludeMsgBeingSent)) {
+				candidate = m;
+				if (++nrofCandidates > 1) {
+					break;
+				}
+			}
+		}
+		if (nrofCandidates <= 1) {
+			return candidate;
+		}
+
+		double minPred = Double.MAX_VALUE;
+		Set<DTNHost> minDestinations = new HashSet<DTNHost>();
+		for (Map.Entry<DTNHost, List<Message>> e : byDestination.entrySet()) {
+			Message first = getFirstDroppable(e.getValue(), 
+					excludeMsgBeingSent);
+			metrics.addScanned(1);
+			if (first == null) {
+				continue;
+			}
+			double pred = prophet.getPredFor(e.getKey());
+			if (pred < minPred) {
+				minPred = pred;
+				minDestinations.clear();
+				candidate = first;
+				nrofCandidates = 0;
+			}
+			if (pred == minPred) {
+				minDestinations.add(e.getKey());
+				nrofCandidates += e.getValue().size();
+			}
+		}
+
+		if (nrofCandidates == 1) {
+			return candidate;
+		}
+
+		/* ties are resolved in the buffer order (like in a linear scan) */
+		for (Message m : router.getMessageCollection()) {
+			metrics.addScanned(1);
+			if (minDestinations.contains(m.getTo()) && 
+					this.selectable.get(m.getId()) == m &&
+					canDrop(m, excludeMsgBeingSent)) {
+				return m;
+			}
+		}
+
+		return candidate;
+	}
+
+	/**
+	 * Returns the first message of the list that can be dropped
+	 * @param msgs The messages
+	 * @param excludeMsgBeingSent If true, messages being sent can't be 
+	 * dropped
+	 * @return The first message that can be dropped or null if none can
+	 */
+	private Message getFirstDroppable(List<Message> msgs, 
+			boolean excludeMsgBeingSent) {
+		for (Message m : msgs) {
+			if (canDrop(m, excludeMsgBeingSent)) {
+				return m;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns true if the message can be dropped
+	 * @param m The message
+	 * @param excludeMsgBeingSent If true, messages being sent can't be 
+	 * dropped
+	 * @return true if the message can be dropped
+	 */
+	private boolean canDrop(Message m, boolean excludeMsgBeingSent) {
+		return !excludeMsgBeingSent || !router.isSending(m.getId());
+	}
+}
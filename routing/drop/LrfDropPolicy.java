@@ -0,0 +1,29 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package routing.drop;
+
+import routing.ActiveRouter;
+import core.Message;
+
+/**
+ * Least recently forwarded drop policy. Drops the message whose last 
+ * forwarding time is the earliest. Messages that haven't been forwarded 
+ * are not selected (if no message has been forwarded, the oldest message 
+ * is dropped).
+ */
+public class LrfDropPolicy extends IndexedDropPolicy {
+
+	public LrfDropPolicy(ActiveRouter router) {
+		super(router, true);
+	}
+
+	@Override
+	protected double getKey(Message m) {
+		if (m.getTimeForwarded() > 0.0) {
+			return m.getTimeForwarded();
+		}
+		return NOT_SELECTABLE;
+	}
+}
@@ -0,0 +1,28 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package routing.drop;
+
+import routing.ActiveRouter;
+import core.Message;
+
+/**
+ * Most probably delivered first drop policy. Drops the message that has been
+ * forwarded to a node with the highest delivery predictability for the 
+ * message's destination (see {@link Message#getHigherDeliveryProb()}). Of
+ * the messages with equal predictabilities, the oldest one is dropped.
+ * Only PRoPHET routers record the predictabilities; with other routers this
+ * policy is the same as FIFO.
+ */
+public class MdmfDropPolicy extends IndexedDropPolicy {
+
+	public MdmfDropPolicy(ActiveRouter router) {
+		super(router, false);
+	}
+
+	@Override
+	protected double getKey(Message m) {
+		return -m.getHigherDeliveryProb();
+	}
+}
@@ -0,0 +1,170 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package routing.drop;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+import routing.ActiveRouter;
+import core.Message;
+
+/**
+ * Index of buffered messages ordered by a key value (smallest first). Used 
+ * by the drop policies to find the message with the smallest key in 
+ * logarithmic time. Messages with equal keys are ordered by their receive
+ * time, or, if requested, the message that comes first in the buffer's 
+ * iteration order is returned (that is the message that a linear scan of 
+ * the buffer would pick).
+ */
+public class MessageIndex {
+	/** the indexed messages ordered by their keys */
+	private TreeSet<Entry> entries;
+	/** entries of the indexed messages by their IDs */
+	private HashMap<String, Entry> entriesById;
+	/** should ties be resolved in buffer iteration order */
+	private boolean bufferOrderTies;
+	/** where the number of examined messages is recorded */
+	private DropPolicyMetrics metrics;
+
+	/**
+	 * Constructor.
+	 * @param bufferOrderTies If true, the message returned by 
+	 * {@link #getFirst(ActiveRouter, boolean)} from the messages with equal
+	 * keys is the one that is first in the buffer iteration order. If false,
+	 * the message received first is returned.
+	 * @param metrics Metrics where the number of messages examined in 
+	 * {@link #getFirst(ActiveRouter, boolean)} is recorded
+	 */
+	public MessageIndex(boolean bufferOrderTies, DropPolicyMetrics metrics) {
+		this.entries = new TreeSet<Entry>(new EntryComparator());
+		this.entriesById = new HashMap<String, Entry>();
+		this.bufferOrderTies = bufferOrderTies;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Adds a message to the index or updates the key of an indexed message
+	 * @param m The message
+	 * @param key The key of the message
+	 */
+	public void put(Message m, double key) {
+		remove(m);
+		Entry e = new Entry(m, key);
+		this.entries.add(e);
+		this.entriesById.put(m.getId(), e);
+	}
+
+	/**
+	 * Removes a message from the index (if it is indexed)
+	 * @param m The message to remove
+	 */
+	public void remove(Message m) {
+		Entry e = this.entriesById.remove(m.getId());
+		if (e != null) {
+			this.entries.remove(e);
+		}
+	}
+
+	/**
+	 * Returns the number of indexed messages
+	 * @return the number of indexed messages
+	 */
+	public int size() {
+		return this.entries.size();
+	}
+
+	/**
+	 * Returns the indexed message with the smallest key
+	 * @param router The router whose buffer the messages are in
+	 * @param excludeMsgBeingSent If true, excludes message(s) that the 
+	 * router is sending
+	 * @return The message with the smallest key or null if there are no 
+	 * (such) messages
+	 */
+	public Message getFirst(ActiveRouter router, boolean excludeMsgBeingSent) {
+		Entry first = null;
+		int scanned = 0;
+
+		for (Entry e : this.entries) {
+			scanned++;
+			if (excludeMsgBeingSent && router.isSending(e.message.getId())) {
+				continue;
+			}
+			if (first == null) {
+				first = e;
+				if (!this.bufferOrderTies) {
+					break;
+				}
+			}
+			else if (e.key == first.key) {
+				this.metrics.addScanned(scanned);
+				return getFirstInBuffer(router, excludeMsgBeingSent, first.key);
+			}
+			else {
+				break;
+			}
+		}
+
+		this.metrics.addScanned(scanned);
+		return first == null ? null : first.message;
+	}
+
+	/**
+	 * Returns the first message, in the buffer iteration order, that has 
+	 * the given key
+	 * @param router The router whose buffer the messages are in
+	 * @param excludeMsgBeingSent If true, excludes message(s) that the 
+	 * router is sending
+	 * @param key The key to look for
+	 * @return The first message with the key or null if there are none
+	 */
+	private Message getFirstInBuffer(ActiveRouter router, 
+			boolean excludeMsgBeingSent, double key) {
+		for (Message m : router.getMessageCollection()) {
+			this.metrics.addScanned(1);
+			Entry e = this.entriesById.get(m.getId());
+			if (e == null || e.key != key) {
+				continue;
+			}
+			if (excludeMsgBeingSent && router.isSending(m.getId())) {
+				continue;
+			}
+			return m;
+		}
+
+		return null;
+	}
+
+	/**
+	 * An indexed message and its key
+	 */
+	private static class Entry {
+		private Message message;
+		private double key;
+
+		public Entry(Message message, double key) {
+			this.message = message;
+			this.key = key;
+		}
+	}
+
+	/**
+	 * Orders entries by key, receive time and unique ID
+	 */
+	private static class EntryComparator implements Comparator<Entry> {
+		public int compare(Entry e1, Entry e2) {
+			int c = Double.compare(e1.key, e2.key);
+			if (c == 0) {
+				c = Double.compare(e1.message.getReceiveTime(), 
+						e2.message.getReceiveTime());
+			}
+			if (c == 0) {
+				c = e1.message.getUniqueId() - e2.message.getUniqueId();
+			}
+			return c;
+		}
+	}
+}
@@ -0,0 +1,25 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package routing.drop;
+
+import routing.ActiveRouter;
+import core.Message;
+
+/**
+ * Most forwarded first drop policy. Drops the message that this node has
+ * forwarded the most times (of the messages with equal forward counts, the
+ * oldest one).
+ */
+public class MofoDropPolicy extends IndexedDropPolicy {
+
+	public MofoDropPolicy(ActiveRouter router) {
+		super(router, false);
+	}
+
+	@Override
+	protected double getKey(Message m) {
+		return -m.getLocalNumberOfReplicas();
+	}
+}
@@ -0,0 +1,47 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package routing.drop;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import routing.ActiveRouter;
+import core.Message;
+import core.SimClock;
+
+/**
+ * Random drop policy. Drops a random message. The buffer is shuffled using
+ * the current (integer) sim time as the seed so the selection is 
+ * reproducible.
+ */
+public class RandomDropPolicy extends DropPolicy {
+
+	public RandomDropPolicy(ActiveRouter router) {
+		super(router);
+	}
+
+	@Override
+	public Message selectMessage(boolean excludeMsgBeingSent) {
+		List<Message> messages = 
+			new ArrayList<Message>(router.getMessageCollection());
+		Collections.shuffle(messages, new Random(SimClock.getIntTime()));
+
+		metrics.addScanned(messages.size());
+		for (Message m : messages) {
+			if (!excludeMsgBeingSent || !router.isSending(m.getId())) {
+				return m;
+			}
+		}
+
+		return null;
+	}
+
+	@Override
+	public boolean dropsOldestByDefault() {
+		return false; // all messages were candidates
+	}
+}
@@ -0,0 +1,134 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package routing.maxprop;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Memoising wrapper for {@link MaxPropDijkstra}. The costs calculated from
+ * a source node are cached and reused as long as the probability sets of 
+ * the nodes that the calculation visited haven't changed (see 
+ * {@link MeetingProbabilitySet#getVersion()}) and the requested destinations
+ * are a subset of the ones that were calculated. The results are always the
+ * same as what a new calculation would return.
+ */
+public class MaxPropCostCache {
+	/** Maximum number of source nodes whose costs are cached */
+	public static final int MAX_SOURCES = 16;
+
+	/** The cost calculator */
+	private MaxPropDijkstra dijkstra;
+	/** Mapping of the nodes' probability sets */
+	private Map<Integer, MeetingProbabilitySet> probs;
+	/** Cached costs by source node (least recently used first) */
+	private Map<Integer, CachedCosts> cache;
+
+	/**
+	 * Constructor.
+	 * @param probs A reference to the mapping of the known hosts meeting
+	 * probability sets
+	 */
+	public MaxPropCostCache(Map<Integer, MeetingProbabilitySet> probs) {
+		this.probs = probs;
+		this.dijkstra = new MaxPropDijkstra(probs);
+		this.cache = new LinkedHashMap<Integer, CachedCosts>(
+				MAX_SOURCES, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<Integer, CachedCosts> eldest) {
+				return size() > MAX_SOURCES;
+			}
+		};
+	}
+
+	/**
+	 * Returns the total costs to the given set of target nodes. See
+	 * {@link MaxPropDijkstra#getCosts(Integer, Set)}.
+	 * @param from The index (address) of the start node
+	 * @param to The address set of destination nodes
+	 * @return A map of (destination node, cost) tuples
+	 */
+	public Map<Integer, Double> getCosts(Integer from, Set<Integer> to) {
+		CachedCosts cached = this.cache.get(from);
+
+		if (cached != null && cached.isValidFor(to)) {
+			Map<Integer, Double> distMap = new HashMap<Integer, Double>();
+			for (Integer node : to) {
+				Double cost = cached.costs.get(node);
+				if (cost != null) {
+					distMap.put(node, cost);
+				}
+			}
+			return distMap;
+		}
+
+		Map<Integer, Double> distMap = dijkstra.getCosts(from, to);
+		this.cache.put(from, new CachedCosts(to, distMap));
+		return distMap;
+	}
+
+	/**
+	 * Costs calculated from one source node with the state of the 
+	 * probability sets they were calculated with.
+	 */
+	private class CachedCosts {
+		/** The destinations of the calculation */
+		private Set<Integer> targets;
+		/** The calculated costs */
+		private Map<Integer, Double> costs;
+		/** The nodes visited in the calculation */
+		private int[] nodes;
+		/** The probability sets of the visited nodes (or null) */
+		private MeetingProbabilitySet[] sets;
+		/** The versions of the probability sets */
+		private int[] versions;
+
+		/**
+		 * Constructor. Stores the results of the latest calculation.
+		 * @param targets The destinations of the calculation
+		 * @param costs The calculated costs
+		 */
+		public CachedCosts(Set<Integer> targets, Map<Integer, Double> costs) {
+			this.targets = new HashSet<Integer>(targets);
+			this.costs = costs;
+
+			int n = dijkstra.getNrofVisited();
+			this.nodes = new int[n];
+			this.sets = new MeetingProbabilitySet[n];
+			this.versions = new int[n];
+			for (int i = 0; i < n; i++) {
+				nodes[i] = dijkstra.getVisitedNode(i);
+				sets[i] = probs.get(nodes[i]);
+				versions[i] = sets[i] == null ? 0 : sets[i].getVersion();
+			}
+		}
+
+		/**
+		 * Returns true if these costs are the same as what a new calculation
+		 * to the given destinations would return
+		 * @param to The destinations
+		 * @return true if the costs can be reused
+		 */
+		public boolean isValidFor(Set<Integer> to) {
+			if (!this.targets.containsAll(to)) {
+				return false;
+			}
+
+			for (int i = 0; i < nodes.length; i++) {
+				MeetingProbabilitySet mps = probs.get(nodes[i]);
+				if (mps != sets[i] || 
+						(mps != null && mps.getVersion() != versions[i])) {
+					return false; // the node's probabilities have changed
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -4,33 +4,44 @@
  */
 package routing.maxprop;
 
-import java.util.Collection;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.PriorityQueue;
-import java.util.Queue;
 import java.util.Set;
 
 /**
  * Dijkstra's shortest path implementation for MaxProp Router module.
+ * The search state is kept in arrays indexed by the node indexes (addresses)
+ * and the unvisited nodes in an indexed binary heap that supports decreasing
+ * the distance of a node in place. The arrays are reused between searches.
  */
 public class MaxPropDijkstra {
 	/** Value for infinite distance  */
-	private static final Double INFINITY = Double.MAX_VALUE;
-	/** Initial size of the priority queue */
-	private static final int PQ_INIT_SIZE = 11;
+	private static final double INFINITY = Double.MAX_VALUE;
+	/** Initial size of the node-indexed arrays */
+	private static final int INIT_SIZE = 16;
 
-	/** Map of node distances from the source node */
-	private DistanceMap distancesFromStart;
-	/** Set of already visited nodes (where the shortest path is known) */
-	private Set<Integer> visited;
-	/** Priority queue of unvisited nodes discovered so far */
-	private Queue<Integer> unvisited;
-	/** Map of previous nodes on the shortest path(s) -- only used for
-	 * debugging purposes */
-	private Map<Integer, Integer> prevNodes;
+	/** Distances from the source node by node index (valid only for the 
+	 * nodes whose {@link #seenIn} equals the current search) */
+	private double[] distancesFromStart;
+	/** Search when the node's distance was set */
+	private int[] seenIn;
+	/** Search when the node was visited (the shortest path became known) */
+	private int[] visitedIn;
+	/** Search when the node was requested as a destination */
+	private int[] targetIn;
+	/** Position of the node in the heap or -1 if it isn't there */
+	private int[] heapPos;
+	/** Binary heap of the unvisited nodes discovered so far */
+	private int[] heap;
+	/** Number of nodes in the heap */
+	private int heapSize;
+	/** Nodes visited in the current search (in the visiting order) */
+	private int[] visitedNodes;
+	/** Number of nodes visited in the current search */
+	private int nrofVisited;
+	/** Number of the current search */
+	private int search;
 	/** Mapping of to other nodes' (whom this node has met) probability sets */
 	private Map<Integer, MeetingProbabilitySet> probs;
 	
@@ -41,22 +52,35 @@ public class MaxPropDijkstra {
 	 */
 	public MaxPropDijkstra(Map<Integer, MeetingProbabilitySet> probs) {
 		this.probs = probs;
+		this.distancesFromStart = new double[INIT_SIZE];
+		this.seenIn = new int[INIT_SIZE];
+		this.visitedIn = new int[INIT_SIZE];
+		this.targetIn = new int[INIT_SIZE];
+		this.heapPos = new int[INIT_SIZE];
+		this.heap = new int[INIT_SIZE];
+		this.visitedNodes = new int[INIT_SIZE];
+		this.search = 0;
 	}
 
 	/**
 	 * Initializes a new search with the first hop router node
 	 * @param firstHop The first hop router node
 	 */
-	private void initWith(Integer firstHop) {
-		this.unvisited = new PriorityQueue<Integer>(PQ_INIT_SIZE, 
-				new DistanceComparator());
-		this.visited = new HashSet<Integer>();
-		this.prevNodes = new HashMap<Integer, Integer>();
-		this.distancesFromStart = new DistanceMap();
+	private void initWith(int firstHop) {
+		if (this.search == Integer.MAX_VALUE) {
+			/* search numbers wrapped; forget all the old searches */
+			Arrays.fill(this.seenIn, 0);
+			Arrays.fill(this.visitedIn, 0);
+			Arrays.fill(this.targetIn, 0);
+			this.search = 0;
+		}
+		this.search++;
+		this.heapSize = 0;
+		this.nrofVisited = 0;
 		
 		// set distance to source 0 and initialize unvisited queue
-		this.distancesFromStart.put(firstHop, 0);
-		this.unvisited.add(firstHop);
+		ensureCapacity(firstHop);
+		setDistance(firstHop, 0);
 	}
 	
 	/**
@@ -72,153 +96,208 @@ public class MaxPropDijkstra {
 		int nrofNodesToFind = to.size();
 		
 		initWith(from);
-		Integer node = null;
+		for (int node : to) {
+			ensureCapacity(node);
+			targetIn[node] = search;
+		}
 		
 		// always take the node with shortest distance
-		while ((node = unvisited.poll()) != null) {
-			if (to.contains(node)) {
+		while (heapSize > 0) {
+			int node = poll();
+			if (targetIn[node] == search) {
 				// found one of the requested nodes
-				distMap.put(node, distancesFromStart.get(node));
+				distMap.put(node, distancesFromStart[node]);
 				nrofNodesToFind--;
 				if (nrofNodesToFind == 0) {
 					break; // all requested nodes found
 				}
 			} 
 			
-			visited.add(node); // mark the node as visited
+			visitedIn[node] = search; // mark the node as visited
+			visitedNodes[nrofVisited++] = node;
 			relax(node);       // add/update neighbor nodes' distances
 		}
 			
 		return distMap;
 	}
 	
+	/**
+	 * Returns the number of nodes whose neighbors were relaxed in the last
+	 * {@link #getCosts(Integer, Set)} call. The result of the call depends
+	 * only on the probability sets of these nodes.
+	 * @return The number of visited nodes
+	 */
+	public int getNrofVisited() {
+		return this.nrofVisited;
+	}
+	
+	/**
+	 * Returns a node that was visited in the last 
+	 * {@link #getCosts(Integer, Set)} call
+	 * @param i Index of the node (0...{@link #getNrofVisited()}-1)
+	 * @return The visited node
+	 */
+	public int getVisitedNode(int i) {
+		return this.visitedNodes[i];
+	}
+	
 	/**
 	 * Relaxes the neighbors of a node (updates the shortest distances).
 	 * @param node The node whose neighbors are relaxed
 	 */
-	private void relax(Integer node) {
-		double nodeDist = distancesFromStart.get(node);
-		Collection<Integer> neighbors;
+	private void relax(int node) {
+		double nodeDist = distancesFromStart[node];
+		MeetingProbabilitySet mps = this.probs.get(node);
 		
-		if (!this.probs.containsKey(node)) {
+		if (mps == null) {
 			return; // node's neighbors are not known
 		}
 		
-		neighbors =	this.probs.get(node).getAllProbs().keySet();
-		
-		for (Integer n : neighbors) {
-			if (visited.contains(n)) {
+		for (int i = 0, n = mps.size(); i < n; i++) {
+			int neighbor = mps.getNodeAt(i);
+			ensureCapacity(neighbor);
+			if (visitedIn[neighbor] == search) {
 				continue; // skip visited nodes
 			}
-						
-			// n node's distance from path's source node
-			double nDist = nodeDist + getDistance(node, n);
 			
-			if (distancesFromStart.get(n) > nDist) { 
+			/* neighbor's distance from path's source node; the distance
+			 * between the nodes is the complement of the probability that the
+			 * next node "node" meets is "neighbor" */
+			double nDist = nodeDist + (1 - mps.getProbAt(i));
+			
+			if (getDistance(neighbor) > nDist) { 
 				// stored distance > found dist -> update
-				prevNodes.put(n, node); // for debugging
-				setDistance(n, nDist);
+				setDistance(neighbor, nDist);
 			}
 		}
 	}
 	
 	/**
-	 * Sets the distance from source node to a node
+	 * Returns the distance from source node to a node
+	 * @param n The node
+	 * @return The distance or {@link #INFINITY} if the node hasn't been
+	 * discovered in this search
+	 */
+	private double getDistance(int n) {
+		return seenIn[n] == search ? distancesFromStart[n] : INFINITY;
+	}
+	
+	/**
+	 * Sets the distance from source node to a node and inserts the node to 
+	 * the heap or moves it to its new place there
 	 * @param n The node whose distance is set
 	 * @param distance The distance of the node from the source node
 	 */
-	private void setDistance(Integer n, double distance) {
-		unvisited.remove(n); // remove node from old place in the queue
-		distancesFromStart.put(n, distance); // update distance
-		unvisited.add(n); // insert node to the new place in the queue
+	private void setDistance(int n, double distance) {
+		distancesFromStart[n] = distance; // update distance
+		if (seenIn[n] != search) {
+			seenIn[n] = search;
+			heap[heapSize] = n;
+			heapPos[n] = heapSize++;
+		}
+		siftUp(heapPos[n]); // distance only decreases
+	}
+	
+	/**
+	 * Removes and returns the node with the shortest distance from the heap
+	 * @return the node with the shortest distance
+	 */
+	private int poll() {
+		int first = heap[0];
+		heapPos[first] = -1;
+		heapSize--;
+		if (heapSize > 0) {
+			heap[0] = heap[heapSize];
+			heapPos[heap[0]] = 0;
+			siftDown(0);
+		}
+		return first;
 	}
 	
 	/**
-	 * Returns the "distance" between two nodes, i.e., the complement of the 
-	 * probability that the next node "from" meets is "to". Works only if there
-	 * exist a probability value for "from" meeting "to". 
-	 * @param from The first node
-	 * @param to The second node
-	 * @return The distance between the two nodes
+	 * Moves a node up in the heap until its parent is not farther
+	 * @param pos The position of the node in the heap
 	 */
-	private double getDistance(Integer from, Integer to) {
-		assert probs.containsKey(from) : "Node " + from + " has not met " + to +
-			" (it has met nodes " + probs.keySet() + ")";
-		return ( 1 - probs.get(from).getProbFor(to) );
+	private void siftUp(int pos) {
+		int node = heap[pos];
+		while (pos > 0) {
+			int parentPos = (pos - 1) / 2;
+			int parent = heap[parentPos];
+			if (compare(node, parent) >= 0) {
+				break;
+			}
+			heap[pos] = parent;
+			heapPos[parent] = pos;
+			pos = parentPos;
+		}
+		heap[pos] = node;
+		heapPos[node] = pos;
 	}
 	
 	/**
-	 * Comparator that compares two nodes by their distance from
-	 * the source node.
+	 * Moves a node down in the heap until its children are not closer
+	 * @param pos The position of the node in the heap
 	 */
-	private class DistanceComparator implements 
-		Comparator<Integer> {
-		
-		/**
-		 * Compares two map nodes by their distance from the source node
-		 * @return -1, 0 or 1 if node1's distance is smaller, equal to, or
-		 * bigger than node2's distance
-		 */
-		public int compare(Integer node1, Integer node2) {
-			double dist1 = distancesFromStart.get(node1);
-			double dist2 = distancesFromStart.get(node2);
-			
-			if (dist1 > dist2) {
-				return 1;
+	private void siftDown(int pos) {
+		int node = heap[pos];
+		while (true) {
+			int childPos = 2 * pos + 1;
+			if (childPos >= heapSize) {
+				break;
 			}
-			else if (dist1 < dist2) {
-				return -1;
+			if (childPos + 1 < heapSize && 
+					compare(heap[childPos + 1], heap[childPos]) < 0) {
+				childPos++;
 			}
-			else {
-				return node1.compareTo(node2);
+			int child = heap[childPos];
+			if (compare(node, child) <= 0) {
+				break;
 			}
+			heap[pos] = child;
+			heapPos[child] = pos;
+			pos = childPos;
 		}
+		heap[pos] = node;
+		heapPos[node] = pos;
 	}
 	
 	/**
-	 * Simple Map implementation for storing distances. 
+	 * Compares two nodes by their distance from the source node
+	 * @return -1, 0 or 1 if node1's distance is smaller, equal to, or
+	 * bigger than node2's distance (or node indexes if the distances are
+	 * equal)
 	 */
-	private class DistanceMap {
-		private HashMap<Integer, Double> map;
+	private int compare(int node1, int node2) {
+		double dist1 = distancesFromStart[node1];
+		double dist2 = distancesFromStart[node2];
 		
-		/**
-		 * Constructor. Creates an empty distance map
-		 */
-		public DistanceMap() {
-			this.map = new HashMap<Integer, Double>(); 
+		if (dist1 > dist2) {
+			return 1;
 		}
-		
-		/**
-		 * Returns the distance to a node. If no distance value
-		 * is found, returns {@link MaxPropDijkstra#INFINITY} as the value.
-		 * @param node The node whose distance is requested
-		 * @return The distance to that node
-		 */
-		public double get(Integer node) {
-			Double value = map.get(node);
-			if (value != null) {
-				return value;
-			}
-			else {
-				return INFINITY;
-			}
+		else if (dist1 < dist2) {
+			return -1;
 		}
-		
-		/**
-		 * Puts a new distance value for a map node
-		 * @param node The node
-		 * @param distance Distance to that node
-		 */
-		public void  put(Integer node, double distance) {
-			map.put(node, distance);
+		else {
+			return node1 < node2 ? -1 : (node1 == node2 ? 0 : 1);
 		}
-		
-		/**
-		 * Returns a string representation of the map's contents
-		 * @return a string representation of the map's contents
-		 */
-		public String toString() {
-			return map.toString();
+	}
+	
+	/**
+	 * Makes sure that the node-indexed arrays can hold the given node
+	 * @param node The node index
+	 */
+	private void ensureCapacity(int node) {
+		if (node < seenIn.length) {
+			return;
 		}
+		
+		int size = Math.max(node + 1, seenIn.length * 2);
+		distancesFromStart = Arrays.copyOf(distancesFromStart, size);
+		seenIn = Arrays.copyOf(seenIn, size);
+		visitedIn = Arrays.copyOf(visitedIn, size);
+		targetIn = Arrays.copyOf(targetIn, size);
+		heapPos = Arrays.copyOf(heapPos, size);
+		heap = Arrays.copyOf(heap, size);
+		visitedNodes = Arrays.copyOf(visitedNodes, size);
 	}
-}
\ No newline at end of file
+}
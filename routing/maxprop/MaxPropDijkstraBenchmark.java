@@ -0,0 +1,110 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package routing.maxprop;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Micro benchmark for {@link MaxPropDijkstra#getCosts(Integer, Set)}. Creates
+ * random meeting probability sets for networks of different sizes and 
+ * measures the average time of a cost calculation from random sources to
+ * random destination sets. Usage:
+ * <PRE>java routing.maxprop.MaxPropDijkstraBenchmark [nrofNodes...]</PRE>
+ * Default network sizes are 500, 2000 and 10000 nodes.
+ */
+public class MaxPropDijkstraBenchmark {
+	/** number of meetings per node used for building the sets */
+	private static final int MEETINGS_PER_NODE = 40;
+	/** number of destinations per cost calculation */
+	private static final int NROF_DESTINATIONS = 100;
+	/** number of warm up calculations before measuring */
+	private static final int WARMUP_ROUNDS = 200;
+	/** number of measured calculations */
+	private static final int ROUNDS = 500;
+	/** seed of the random number generator */
+	private static final long SEED = 42;
+
+	/**
+	 * Runs the benchmark
+	 * @param args Network sizes (number of nodes)
+	 */
+	public static void main(String[] args) {
+		int[] sizes = {500, 2000, 10000};
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i=0; i<args.length; i++) {
+				sizes[i] = Integer.parseInt(args[i]);
+			}
+		}
+
+		System.out.println("# nodes us_per_getCosts");
+		for (int nrofNodes : sizes) {
+			System.out.printf("%d %.3f%n", nrofNodes, run(nrofNodes));
+		}
+	}
+
+	/**
+	 * Runs the benchmark for one network size
+	 * @param nrofNodes Number of nodes in the network
+	 * @return Average time of one cost calculation (microseconds)
+	 */
+	private static double run(int nrofNodes) {
+		Random rng = new Random(SEED);
+		Map<Integer, MeetingProbabilitySet> probs = 
+			new HashMap<Integer, MeetingProbabilitySet>();
+
+		for (int i=0; i<nrofNodes; i++) {
+			MeetingProbabilitySet mps = 
+				new MeetingProbabilitySet();
+			for (int j=0; j<MEETINGS_PER_NODE; j++) {
+				int other = rng.nextInt(nrofNodes);
+				if (other != i) {
+					mps.updateMeetingProbFor(other);
+				}
+			}
+			probs.put(i, mps);
+		}
+
+		MaxPropDijkstra dijkstra = new MaxPropDijkstra(probs);
+		double checksum = 0;
+		for (int i=0; i<WARMUP_ROUNDS; i++) {
+			checksum += calculate(dijkstra, nrofNodes, rng);
+		}
+
+		long start = System.nanoTime();
+		for (int i=0; i<ROUNDS; i++) {
+			checksum += calculate(dijkstra, nrofNodes, rng);
+		}
+		long elapsed = System.nanoTime() - start;
+
+		if (checksum < 0) { // never true; keeps the results used
+			System.out.println(checksum);
+		}
+		return elapsed / 1000.0 / ROUNDS;
+	}
+
+	/**
+	 * Calculates the costs from a random node to random destinations
+	 * @return Sum of the found costs
+	 */
+	private static double calculate(MaxPropDijkstra dijkstra, int nrofNodes,
+			Random rng) {
+		Set<Integer> to = new HashSet<Integer>();
+		while (to.size() < NROF_DESTINATIONS) {
+			to.add(rng.nextInt(nrofNodes));
+		}
+
+		double sum = 0;
+		for (double cost : dijkstra.getCosts(rng.nextInt(nrofNodes), 
+				to).values()) {
+			sum += cost;
+		}
+		return sum;
+	}
+}
@@ -1,10 +1,11 @@
 /* 
- * Copyright 2010 Aalto University, ComNet
+ * Copyright 2010 Aalto University, ComNet
  * Released under GPLv3. See LICENSE.txt for details. 
  */
 package routing.maxprop;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -12,14 +13,26 @@ import core.SimClock;
 
 /**
  * Class for storing and manipulating the meeting probabilities for the MaxProp
- * router module.
+ * router module. The probabilities are stored in primitive arrays ordered by
+ * the node indexes, so that the set can be iterated (see {@link #size()},
+ * {@link #getNodeAt(int)} and {@link #getProbAt(int)}) and replicated without
+ * boxing.
  */
 public class MeetingProbabilitySet {
 	public static final int INFINITE_SET_SIZE = Integer.MAX_VALUE;
-	/** meeting probabilities (probability that the next node one meets is X) */
-	private Map<Integer, Double> probs;
+	/** initial capacity of the arrays of an unlimited size set */
+	private static final int INITIAL_CAPACITY = 8;
+	/** indexes of the nodes that have a probability (in ascending order) */
+	private int[] nodes;
+	/** meeting probabilities (probability that the next node one meets is X)
+	 * in the same order as {@link #nodes} */
+	private double[] probs;
+	/** number of nodes in the set */
+	private int size;
 	/** the time when this MPS was last updated */
 	private double lastUpdateTime;
+	/** modification count of the probabilities */
+	private int version;
 	/** the alpha parameter */
 	private double alpha;
     private int maxSetSize;
@@ -32,13 +45,12 @@ public class MeetingProbabilitySet {
 	 */
 	public MeetingProbabilitySet(int maxSetSize, double alpha) {
 		this.alpha = alpha;
-		this.probs = new HashMap<Integer, Double>();
         if (maxSetSize == INFINITE_SET_SIZE || maxSetSize < 1) {
-        	this.probs = new HashMap<Integer, Double>();
         	this.maxSetSize = INFINITE_SET_SIZE;
+        	initArrays(INITIAL_CAPACITY);
         } else {
-        	this.probs = new HashMap<Integer, Double>(maxSetSize);
             this.maxSetSize = maxSetSize;
+        	initArrays(maxSetSize);
         }
 		this.lastUpdateTime = 0;
 	}
@@ -60,51 +72,78 @@ public class MeetingProbabilitySet {
 		this(INFINITE_SET_SIZE, alpha);
 		double prob = 1.0/initiallyKnownNodes.size();
 		for (Integer i : initiallyKnownNodes) {
-			this.probs.put(i, prob);
+			put(i, prob);
 		}
 	}
 	
+	/**
+	 * Copy constructor. Creates a deep copy of a probability set.
+	 * @param mps The probability set to copy
+	 */
+	private MeetingProbabilitySet(MeetingProbabilitySet mps) {
+		this.alpha = mps.alpha;
+		this.maxSetSize = mps.maxSetSize;
+		this.nodes = Arrays.copyOf(mps.nodes, mps.nodes.length);
+		this.probs = Arrays.copyOf(mps.probs, mps.probs.length);
+		this.size = mps.size;
+		this.lastUpdateTime = mps.lastUpdateTime;
+		this.version = mps.version;
+	}
+	
+	/**
+	 * Creates empty arrays for the set
+	 * @param capacity Initial capacity of the arrays
+	 */
+	private void initArrays(int capacity) {
+		this.nodes = new int[capacity];
+		this.probs = new double[capacity];
+		this.size = 0;
+	}
+	
 	/**
 	 * Updates meeting probability for the given node index.
 	 * <PRE> P(b) = P(b)_old + alpha
 	 * Normalize{P}</PRE> 
 	 * I.e., The probability of the given node index is increased by one and
 	 * then all the probabilities are normalized so that their sum equals to 1.
+	 * If the set is full after the update, the smallest probability is 
+	 * dropped (the one with the smallest node index if there are many).
 	 * @param index The node index to update the probability for
 	 */
-	public void updateMeetingProbFor(Integer index) {
-        Map.Entry<Integer, Double> smallestEntry = null;
+	public void updateMeetingProbFor(int index) {
+        int smallestPos = -1;
         double smallestValue = Double.MAX_VALUE;
 
 		this.lastUpdateTime = SimClock.getTime();
 		
-		if (probs.size() == 0) { // first entry
-			probs.put(index, 1.0);
+		if (size == 0) { // first entry
+			put(index, 1.0);
 			return;
 		}
 		
 		double newValue = getProbFor(index) + alpha;
-		probs.put(index, newValue);
+		put(index, newValue);
 
+		version++;
 		/* now the sum of all entries is 1+alpha;
 		 * normalize to one by dividing all the entries by 1+alpha */ 
-		for (Map.Entry<Integer, Double> entry : probs.entrySet()) {
-			entry.setValue(entry.getValue() / (1+alpha));
-            if (entry.getValue() < smallestValue) {
-                smallestEntry = entry;
-                smallestValue = entry.getValue();
+		for (int i = 0; i < size; i++) {
+			probs[i] = probs[i] / (1+alpha);
+            if (probs[i] < smallestValue) {
+                smallestPos = i;
+                smallestValue = probs[i];
             }
 
 		}
 
-        if (probs.size() >= maxSetSize) {
-            core.Debug.p("Probsize: " + probs.size() + " dropping " + 
-                    probs.remove(smallestEntry.getKey()));
+        if (size >= maxSetSize) {
+            core.Debug.p("Probsize: " + size + " dropping " + 
+                    removeAt(smallestPos));
         }
 	}
 	
-	public void updateMeetingProbFor(Integer index, double iet)	{
-		probs.put(index, iet);
+	public void updateMeetingProbFor(int index, double iet)	{
+		put(index, iet);
 	}
 	
 	/**
@@ -112,9 +151,10 @@ public class MeetingProbabilitySet {
 	 * @param index The index of the node to look the P for
 	 * @return the current delivery probability value
 	 */
-	public double getProbFor(Integer index) {
-		if (probs.containsKey(index)) {
-			return probs.get(index);
+	public double getProbFor(int index) {
+		int pos = Arrays.binarySearch(nodes, 0, size, index);
+		if (pos >= 0) {
+			return probs[pos];
 		}
 		else {
 			/* the node with the given index has not been met */
@@ -123,11 +163,94 @@ public class MeetingProbabilitySet {
 	}
 	
 	/**
-	 * Returns a reference to the probability map of this probability set
-	 * @return a reference to the probability map of this probability set
+	 * Sets the probability for a node index
+	 * @param index The node index
+	 * @param prob The new probability
+	 */
+	private void put(int index, double prob) {
+		version++;
+		int pos = Arrays.binarySearch(nodes, 0, size, index);
+		if (pos >= 0) {
+			probs[pos] = prob;
+			return;
+		}
+		
+		pos = -(pos + 1); // insertion point
+		if (size == nodes.length) {
+			int capacity = Math.max(INITIAL_CAPACITY, size * 2);
+			nodes = Arrays.copyOf(nodes, capacity);
+			probs = Arrays.copyOf(probs, capacity);
+		}
+		System.arraycopy(nodes, pos, nodes, pos + 1, size - pos);
+		System.arraycopy(probs, pos, probs, pos + 1, size - pos);
+		nodes[pos] = index;
+		probs[pos] = prob;
+		size++;
+	}
+	
+	/**
+	 * Removes an entry from the set
+	 * @param pos Position of the entry in the arrays
+	 * @return The probability of the removed entry
+	 */
+	private double removeAt(int pos) {
+		version++;
+		double prob = probs[pos];
+		System.arraycopy(nodes, pos + 1, nodes, pos, size - pos - 1);
+		System.arraycopy(probs, pos + 1, probs, pos, size - pos - 1);
+		size--;
+		return prob;
+	}
+	
+	/**
+	 * Returns the number of nodes in this probability set
+	 * @return the number of nodes in this probability set
+	 */
+	public int size() {
+		return this.size;
+	}
+	
+	/**
+	 * Returns the index of the node at the given position. The nodes are
+	 * in ascending order.
+	 * @param pos Position of the node (0...{@link #size()}-1)
+	 * @return the index of the node at that position
+	 */
+	public int getNodeAt(int pos) {
+		return this.nodes[pos];
+	}
+	
+	/**
+	 * Returns the probability of the node at the given position
+	 * @param pos Position of the node (0...{@link #size()}-1)
+	 * @return the probability of the node at that position
+	 */
+	public double getProbAt(int pos) {
+		return this.probs[pos];
+	}
+	
+	/**
+	 * Returns a copy of the probabilities of this probability set as a map.
+	 * For iterating the probabilities, {@link #getNodeAt(int)} and 
+	 * {@link #getProbAt(int)} are cheaper.
+	 * @return a map of the probabilities ordered by the node indexes
 	 */
 	public Map<Integer, Double> getAllProbs() {
-		return this.probs;
+		Map<Integer, Double> map = new LinkedHashMap<Integer, Double>(); 
+		for (int i = 0; i < size; i++) {
+			map.put(nodes[i], probs[i]);
+		}
+		return map;
+	}
+	
+	/**
+	 * Returns the modification count of the probabilities. The count is
+	 * increased every time any of the probabilities changes, so two equal
+	 * counts of the same set mean that its probabilities haven't changed.
+	 * @return the modification count
+	 */
+	public int getVersion() {
+		return this.version;
 	}
 	
 	/**
@@ -150,16 +273,7 @@ public class MeetingProbabilitySet {
 	 * @return a deep copy of the probability set
 	 */
 	public MeetingProbabilitySet replicate() {
-		MeetingProbabilitySet replica = new MeetingProbabilitySet(
-				this.maxSetSize, alpha);
-		
-		// do a deep copy
-		for (Map.Entry<Integer, Double> e : probs.entrySet()) {
-			replica.probs.put(e.getKey(), e.getValue().doubleValue());
-		}
-		
-		replica.lastUpdateTime = this.lastUpdateTime;
-		return replica;
+		return new MeetingProbabilitySet(this); // does a deep copy
 	}
 	
 	/**
@@ -168,6 +282,6 @@ public class MeetingProbabilitySet {
 	 */
     @Override
 	public String toString() {
-		return "probs: " +	this.probs.toString();
+		return "probs: " +	getAllProbs().toString();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,149 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package routing.prophet;
+
+import java.util.Arrays;
+
+import core.DTNHost;
+import core.SimClock;
+
+/**
+ * Delivery predictabilities of a PRoPHET router, indexed by the addresses of
+ * the hosts. Entries are aged lazily: every entry stores the time it was last
+ * aged and is aged only when it is read, instead of aging the whole table
+ * every time the simulation time changes. The aging multiplier is computed
+ * with {@link Math#pow(double, double)} from the elapsed time units, like 
+ * the whole table was aged.
+ */
+public class PredictabilityTable {
+	/** initial capacity of the address-indexed arrays */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** the aging constant */
+	private final double gamma;
+	/** how many seconds one time unit is */
+	private final double secondsInTimeUnit;
+	/** the predictabilities by host address (not aged since agedAt) */
+	private double[] values;
+	/** when the predictabilities were last aged, by host address */
+	private double[] agedAt;
+	/** hosts by address (null if the host doesn't have an entry) */
+	private DTNHost[] hosts;
+	/** addresses of the hosts that have an entry, in insertion order */
+	private int[] addresses;
+	/** number of entries */
+	private int size;
+	/** version of the table; changes every time a predictability is set */
+	private long version;
+
+	/**
+	 * Constructor. Creates an empty table.
+	 * @param gamma The aging constant
+	 * @param secondsInTimeUnit How many seconds one time unit is
+	 */
+	public PredictabilityTable(double gamma, double secondsInTimeUnit) {
+		this.gamma = gamma;
+		this.secondsInTimeUnit = secondsInTimeUnit;
+		this.values = new double[INITIAL_CAPACITY];
+		this.agedAt = new double[INITIAL_CAPACITY];
+		this.hosts = new DTNHost[INITIAL_CAPACITY];
+		this.addresses = new int[INITIAL_CAPACITY];
+		this.size = 0;
+		this.version = 0;
+	}
+
+	/**
+	 * Returns the current (aged) predictability for a host
+	 * @param host The host to look the predictability for
+	 * @return the current predictability or 0 if the host has no entry
+	 */
+	public double get(DTNHost host) {
+		int address = host.getAddress();
+		if (address >= hosts.length || hosts[address] == null) {
+			return 0;
+		}
+		return getAged(address);
+	}
+
+	/**
+	 * Sets the predictability for a host
+	 * @param host The host whose predictability is set
+	 * @param value The new predictability
+	 */
+	public void put(DTNHost host, double value) {
+		int address = host.getAddress();
+		if (address >= hosts.length) {
+			int capacity = Math.max(address + 1, hosts.length * 2);
+			values = Arrays.copyOf(values, capacity);
+			agedAt = Arrays.copyOf(agedAt, capacity);
+			hosts = Arrays.copyOf(hosts, capacity);
+		}
+
+		if (hosts[address] == null) {
+			if (size == addresses.length) {
+				addresses = Arrays.copyOf(addresses, size * 2);
+			}
+			hosts[address] = host;
+			addresses[size++] = address;
+		}
+
+		values[address] = value;
+		agedAt[address] = SimClock.getTime();
+		this.version++;
+	}
+
+	/**
+	 * Returns the version of the table. The version changes every time a
+	 * predictability is set (but not when the entries are aged, which scales
+	 * all of them equally).
+	 * @return The version of the table
+	 */
+	public long getVersion() {
+		return this.version;
+	}
+
+	/**
+	 * Returns the number of hosts that have an entry
+	 * @return the number of entries
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the host of an entry
+	 * @param index Index of the entry (0...{@link #size()}-1)
+	 * @return the host of the entry
+	 */
+	public DTNHost getHost(int index) {
+		return hosts[addresses[index]];
+	}
+
+	/**
+	 * Returns the current (aged) predictability of an entry
+	 * @param index Index of the entry (0...{@link #size()}-1)
+	 * @return the predictability of the entry
+	 */
+	public double getValue(int index) {
+		return getAged(addresses[index]);
+	}
+
+	/**
+	 * Ages an entry up to the current time and returns its value.
+	 * <CODE>P = P_old * (GAMMA ^ k)</CODE>, where k is number of time units
+	 * that have elapsed since the entry was last aged.
+	 * @param address Address of the entry's host
+	 * @return the aged value
+	 */
+	private double getAged(int address) {
+		double now = SimClock.getTime();
+		if (agedAt[address] != now) {
+			double timeDiff = (now - agedAt[address]) / secondsInTimeUnit;
+			values[address] *= Math.pow(gamma, timeDiff);
+			agedAt[address] = now;
+		}
+		return values[address];
+	}
+}